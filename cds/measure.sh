@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+# Vergleicht Startzeit und Zeit bis zur ersten /api/build-Antwort mit und ohne AppCDS/AOT.
+#
+#   mvn -B -Pcds -DskipTests package
+#   cds/measure.sh target/facturx-converter-0.1.0.jar target/cds
+#
+# Misst je Variante RUNS Kaltstarts: "startup" ist die von Spring geloggte Startzeit
+# ("Started FacturxApplication in ..."), "first_response" die Zeit vom JVM-Start bis zur
+# vollständigen ersten PDF-Antwort (inklusive JIT-Kaltstart von Mustang/PDFBox).
+set -euo pipefail
+
+JAR=${1:?Pfad zum Service-JAR}
+CDS_DIR=${2:?Verzeichnis aus cds/train.sh}
+INVOICE=${INVOICE:-test-invoice.json}
+PORT=${PORT:-18081}
+RUNS=${RUNS:-5}
+DIR=$(cd "$(dirname "$0")" && pwd)
+
+now_ms() { echo $(( $(date +%s%N) / 1000000 )); }
+
+measure() {
+  local name=$1; shift
+  for run in $(seq 1 "$RUNS"); do
+    local log
+    log=$(mktemp)
+    local t0
+    t0=$(now_ms)
+    "$@" --server.port="$PORT" > "$log" 2>&1 &
+    local pid=$!
+    until curl -sf -o /dev/null \
+        -F "invoice=@$INVOICE;type=application/json" \
+        -F "pdf=@$DIR/training.pdf;type=application/pdf" \
+        "http://localhost:$PORT/api/build"; do
+      kill -0 $pid 2>/dev/null || { cat "$log"; exit 1; }
+      sleep 0.05
+    done
+    local t1
+    t1=$(now_ms)
+    kill -TERM $pid
+    wait $pid || true
+    local startup
+    startup=$(sed -n 's/.*Started FacturxApplication in \([0-9.]*\) seconds.*/\1/p' "$log")
+    printf '%-8s run=%d startup=%ss first_response=%dms\n' "$name" "$run" "$startup" $((t1 - t0))
+    rm -f "$log"
+  done
+}
+
+measure default java -jar "$JAR"
+measure cds java -XX:SharedArchiveFile="$CDS_DIR/app.jsa" -Dspring.aot.enabled=true -jar "$CDS_DIR/app.jar"
@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+# Trainingslauf für das AppCDS-Archiv (Profil "cds", siehe pom.xml und cds/Dockerfile).
+#
+#   cds/train.sh target/facturx-converter-0.1.0.jar target/cds
+#
+# Entpackt das JAR (Spring Boot jarmode tools), startet den Service mit AOT und
+# -XX:ArchiveClassesAtExit, schickt test-invoice.json mit cds/training.pdf mehrfach an /api/build
+# (plus /api/build/xml) und beendet ihn regulär, damit die JVM das Archiv schreibt. Danach liegen
+# in <out-dir> app.jar, lib/ und app.jsa; Start mit:
+#
+#   java -XX:SharedArchiveFile=<out-dir>/app.jsa -Dspring.aot.enabled=true -jar <out-dir>/app.jar
+#
+# Das Archiv passt nur zur JVM, mit der es trainiert wurde; sonst startet der Service ohne CDS.
+set -euo pipefail
+
+JAR=${1:?Pfad zum Service-JAR}
+OUT=${2:?Zielverzeichnis}
+INVOICE=${INVOICE:-test-invoice.json}
+PORT=${PORT:-18080}
+REQUESTS=${REQUESTS:-20}
+DIR=$(cd "$(dirname "$0")" && pwd)
+
+rm -rf "$OUT"
+java -Djarmode=tools -jar "$JAR" extract --destination "$OUT"
+if [ "$(basename "$JAR")" != app.jar ]; then
+  mv "$OUT/$(basename "$JAR")" "$OUT/app.jar"
+fi
+
+java -XX:ArchiveClassesAtExit="$OUT/app.jsa" -Dspring.aot.enabled=true \
+  -jar "$OUT/app.jar" --server.port="$PORT" --facturx.warmup.enabled=true > "$OUT/training.log" 2>&1 &
+pid=$!
+trap 'kill $pid 2>/dev/null || true' EXIT
+
+for _ in $(seq 1 120); do
+  curl -sf "http://localhost:$PORT/actuator/health" > /dev/null && break
+  kill -0 $pid 2>/dev/null || { cat "$OUT/training.log"; exit 1; }
+  sleep 1
+done
+
+for _ in $(seq 1 "$REQUESTS"); do
+  curl -sf -o /dev/null \
+    -F "invoice=@$INVOICE;type=application/json" \
+    -F "pdf=@$DIR/training.pdf;type=application/pdf" \
+    "http://localhost:$PORT/api/build"
+  curl -sf -o /dev/null -H 'Content-Type: application/json' \
+    --data-binary "@$INVOICE" "http://localhost:$PORT/api/build/xml"
+done
+
+kill -TERM $pid
+wait $pid || true
+trap - EXIT
+test -s "$OUT/app.jsa" || { echo "CDS-Archiv wurde nicht geschrieben" >&2; cat "$OUT/training.log"; exit 1; }
+echo "CDS-Archiv: $OUT/app.jsa ($(du -h "$OUT/app.jsa" | cut -f1))"
@@ -0,0 +1,29 @@
+// k6-Lasttest für POST /api/build
+//
+//   k6 run -e BASE_URL=http://localhost:8080 -e PDF=invoice.pdf -e VUS=50 loadtest/build.js
+//
+// INVOICE (Standard: test-invoice.json) und PDF werden einmal geladen und bei jedem Request
+// gesendet. Ergebnis: Durchsatz (http_reqs), Latenzen und Fehlerrate; Speicher misst run.sh.
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const invoice = open(__ENV.INVOICE || '../test-invoice.json');
+const pdf = open(__ENV.PDF || 'invoice.pdf', 'b');
+
+export const options = {
+  vus: Number(__ENV.VUS || 50),
+  duration: __ENV.DURATION || '2m',
+  summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+};
+
+export default function () {
+  const res = http.post(`${BASE_URL}/api/build`, {
+    invoice: http.file(invoice, 'invoice.json', 'application/json'),
+    pdf: http.file(pdf, 'invoice.pdf', 'application/pdf'),
+  }, { timeout: '180s' });
+  check(res, {
+    'status 200': (r) => r.status === 200,
+    'is pdf': (r) => String(r.headers['Content-Type']).startsWith('application/pdf'),
+  });
+}
@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+# Vergleicht Plattform-Threads (Standard) mit virtuellen Threads unter gleicher Last.
+#
+# Virtuelle Threads brauchen JDK 21, daher Build und Lauf mit Java 21:
+#
+#   mvn -B -Pjava21 -DskipTests package
+#   loadtest/run.sh target/facturx-converter-*.jar invoice.pdf
+#
+# Je Modus: Service starten, k6 laufen lassen, danach Durchsatz aus der k6-Zusammenfassung sowie
+# Heap (jvm.memory.used), Live-Threads und RSS des Prozesses festhalten. Ergebnisse landen in
+# loadtest/results/<modus>.{json,txt}.
+set -euo pipefail
+
+JAR=${1:?Pfad zum Service-JAR}
+PDF=${2:?Pfad zum Quell-PDF}
+VUS=${VUS:-200}
+DURATION=${DURATION:-2m}
+PORT=${PORT:-8080}
+HEAP=${HEAP:-2g}
+DIR=$(cd "$(dirname "$0")" && pwd)
+mkdir -p "$DIR/results"
+
+metric() {
+  curl -s "http://localhost:$PORT/actuator/metrics/$1" | sed -n 's/.*"value":\([0-9.E+-]*\).*/\1/p' | head -1
+}
+
+run_mode() {
+  local mode=$1 virtual=$2
+  echo "== $mode (spring.threads.virtual.enabled=$virtual)"
+  java -Xmx"$HEAP" -jar "$JAR" --server.port="$PORT" --spring.threads.virtual.enabled="$virtual" \
+    > "$DIR/results/$mode.log" 2>&1 &
+  local pid=$!
+  trap 'kill $pid 2>/dev/null || true' EXIT
+  until curl -sf "http://localhost:$PORT/actuator/health" > /dev/null; do sleep 1; done
+
+  k6 run -q -e BASE_URL="http://localhost:$PORT" -e PDF="$PDF" -e VUS="$VUS" -e DURATION="$DURATION" \
+    --summary-export "$DIR/results/$mode.json" "$DIR/build.js"
+
+  {
+    echo "mode=$mode vus=$VUS duration=$DURATION"
+    echo "http_reqs/s=$(sed -n 's/.*"http_reqs":{[^}]*"rate":\([0-9.]*\).*/\1/p' "$DIR/results/$mode.json")"
+    echo "heap_used_bytes=$(metric 'jvm.memory.used?tag=area:heap')"
+    echo "threads_live=$(metric jvm.threads.live)"
+    echo "rss_kb=$(ps -o rss= -p $pid)"
+  } | tee "$DIR/results/$mode.txt"
+
+  kill $pid
+  wait $pid 2>/dev/null || true
+  trap - EXIT
+}
+
+run_mode platform false
+run_mode virtual true
@@ -0,0 +1,49 @@
+package com.example.facturx.bench;
+
+import com.example.facturx.FacturxApplication;
+import com.example.facturx.model.InvoiceDTO;
+import com.example.facturx.service.InvoiceReader;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Startet den Spring-Kontext einmal je JMH-Fork (ohne Webserver), damit die Benchmarks
+ * dieselbe Verdrahtung wie der Service nutzen.
+ */
+final class BenchContext {
+
+  /** Basis-Fixture; per {@code -Dfacturx.bench.invoice=...} überschreibbar. */
+  static final String INVOICE_FIXTURE = System.getProperty("facturx.bench.invoice", "test-invoice.json");
+
+  private static ConfigurableApplicationContext context;
+
+  private BenchContext() {}
+
+  static synchronized ConfigurableApplicationContext get() {
+    if (context == null) {
+      context = new SpringApplicationBuilder(FacturxApplication.class)
+          .web(WebApplicationType.NONE)
+          .logStartupInfo(false)
+          .properties("logging.level.root=WARN", "logging.level.com.example.facturx=WARN")
+          .run();
+    }
+    return context;
+  }
+
+  static <T> T bean(Class<T> type) {
+    return get().getBean(type);
+  }
+
+  /** Liest das Basis-Fixture jedes Mal neu, damit Benchmarks es gefahrlos verändern können. */
+  static InvoiceDTO invoice() throws IOException {
+    try (InputStream in = Files.newInputStream(Path.of(INVOICE_FIXTURE))) {
+      return bean(InvoiceReader.class).read(in);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.example.facturx.bench;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.example.facturx.service.FacturxService;
+import com.example.facturx.service.PdfSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end: {@link FacturxService#buildFacturX(InvoiceDTO, PdfSource)} für kleine, mittlere und
+ * große Eingangs-PDFs, jeweils als einfaches PDF (A3-Konvertierung) und als PDF/A-3.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BuildPipelineBenchmark {
+
+  @Param({"SMALL", "MEDIUM", "LARGE"})
+  public PdfFixtures.Size size;
+
+  @Param({"plain", "pdfa"})
+  public String input;
+
+  private FacturxService service;
+  private InvoiceDTO invoice;
+  private byte[] pdf;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    service = BenchContext.bean(FacturxService.class);
+    invoice = BenchContext.invoice();
+    pdf = PdfFixtures.plainPdf(size);
+    if (input.equals("pdfa")) {
+      // Ein Durchlauf durch den Service liefert ein PDF/A-3
+      pdf = service.buildFacturX(BenchContext.invoice(), PdfSource.fromBytes(pdf));
+    }
+  }
+
+  @Benchmark
+  public byte[] buildFacturX() {
+    return service.buildFacturX(invoice, PdfSource.fromBytes(pdf));
+  }
+}
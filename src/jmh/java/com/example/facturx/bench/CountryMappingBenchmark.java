@@ -0,0 +1,40 @@
+package com.example.facturx.bench;
+
+import com.example.facturx.service.CountryMappingService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CountryMappingService#getCountryCode(String)} über eine Mischung typischer Eingaben:
+ * deutsche und englische Namen, Umlaute, ISO-Codes und ein unbekannter Wert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountryMappingBenchmark {
+
+  private static final String[] INPUTS = {
+      "Deutschland", "Germany", "Österreich", "Schweiz", "United Kingdom",
+      "Vereinigte Staaten", "Côte d'Ivoire", "DE", "AUT", "Atlantis"
+  };
+
+  private CountryMappingService service;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    service = BenchContext.bean(CountryMappingService.class);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(10)
+  public void getCountryCode(Blackhole bh) {
+    for (String input : INPUTS) {
+      bh.consume(service.getCountryCode(input));
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.example.facturx.bench;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.example.facturx.service.FacturxService;
+import org.mustangproject.Invoice;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DTO → Mustang-Invoice inklusive Rundungsausgleich, mit 1, 100 und 10.000 Positionen und beiden
+ * Totals-Engines (BigDecimal und Festkomma). JMH forkt je Parameterkombination, daher kann die
+ * Engine vor dem Kontextstart per System-Property gesetzt werden.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class MappingBenchmark {
+
+  @Param({"1", "100", "10000"})
+  public int lines;
+
+  @Param({"bigdecimal", "fixed"})
+  public String engine;
+
+  private FacturxService service;
+  private InvoiceDTO invoice;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    System.setProperty("facturx.totals.engine", engine);
+    service = BenchContext.bean(FacturxService.class);
+    invoice = BenchContext.invoice();
+    List<InvoiceDTO.Line> base = invoice.lines;
+    List<InvoiceDTO.Line> scaled = new ArrayList<>(lines);
+    for (int i = 0; i < lines; i++) {
+      scaled.add(base.get(i % base.size()));
+    }
+    invoice.lines = scaled;
+  }
+
+  @Benchmark
+  public Invoice mapInvoice() {
+    return service.mapInvoice(invoice);
+  }
+}
@@ -0,0 +1,77 @@
+package com.example.facturx.bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Erzeugt einfache (Nicht-PDF/A-)Eingangs-PDFs in drei Größen.
+ */
+public final class PdfFixtures {
+
+  public enum Size {
+    /** eine Textseite, wenige KB */
+    SMALL(1, false),
+    /** 10 Seiten mit je einem Scan-ähnlichen Bild */
+    MEDIUM(10, true),
+    /** 60 Seiten mit je einem Scan-ähnlichen Bild, deutlich > 10 MB */
+    LARGE(60, true);
+
+    final int pages;
+    final boolean scanned;
+
+    Size(int pages, boolean scanned) {
+      this.pages = pages;
+      this.scanned = scanned;
+    }
+  }
+
+  private PdfFixtures() {}
+
+  static byte[] plainPdf(Size size) throws IOException {
+    Random random = new Random(42);
+    try (PDDocument doc = new PDDocument()) {
+      PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+      for (int i = 0; i < size.pages; i++) {
+        PDPage page = new PDPage(PDRectangle.A4);
+        doc.addPage(page);
+        try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+          if (size.scanned) {
+            PDImageXObject img = JPEGFactory.createFromImage(doc, noise(random, 1240, 1754), 0.85f);
+            cs.drawImage(img, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+          }
+          cs.beginText();
+          cs.setFont(font, 12);
+          cs.newLineAtOffset(50, 780);
+          cs.showText("Rechnung - Benchmark-Fixture, Seite " + (i + 1));
+          cs.endText();
+        }
+      }
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      doc.save(bos);
+      return bos.toByteArray();
+    }
+  }
+
+  /** Rauschen komprimiert schlecht und kommt damit echten Scans nahe. */
+  private static BufferedImage noise(Random random, int w, int h) {
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        int g = 200 + random.nextInt(56);
+        img.setRGB(x, y, (g << 16) | (g << 8) | g);
+      }
+    }
+    return img;
+  }
+}
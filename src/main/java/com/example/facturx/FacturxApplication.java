@@ -2,8 +2,10 @@ package com.example.facturx;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FacturxApplication {
   public static void main(String[] args) {
     SpringApplication.run(FacturxApplication.class, args);
@@ -0,0 +1,74 @@
+package com.example.facturx.api;
+
+import com.example.facturx.service.BatchBuildService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api")
+public class BatchController {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchController.class);
+
+    @Autowired
+    private BatchBuildService batchBuildService;
+
+    /**
+     * Nimmt ein ZIP mit {@code <name>.json}/{@code <name>.pdf}-Paaren entgegen und streamt ein ZIP
+     * mit den erzeugten Factur-X-PDFs (bzw. Fehlertexten) und einem {@code manifest.json} zurück.
+     *
+     * Bewusst synchron auf den Response-Stream geschrieben: ein Batch läuft deutlich länger als
+     * {@code spring.mvc.async.request-timeout}.
+     *
+     * Als Multipart-Part gelten die globalen Limits {@code spring.servlet.multipart.*}; größere
+     * Archive kommen als Request-Body (siehe unten).
+     */
+    @PostMapping(value = "/build/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public void buildBatch(@RequestPart("archive") MultipartFile archive,
+                           HttpServletResponse response) throws IOException {
+        log.info("Received batch archive: {}, size: {}", archive.getOriginalFilename(), archive.getSize());
+
+        try (InputStream in = archive.getInputStream()) {
+            writeBatch(in, response);
+        }
+    }
+
+    /**
+     * Dasselbe mit dem ZIP als Request-Body ({@code Content-Type: application/zip}). Der Body läuft
+     * nicht durch den Multipart-Parser und wird nicht zwischengespeichert; statt der globalen
+     * Multipart-Limits gilt {@code facturx.batch.max-archive-size}.
+     */
+    @PostMapping(value = "/build/batch", consumes = "application/zip")
+    public void buildBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = request.getContentLengthLong();
+        log.info("Received batch archive as request body, size: {}", length);
+        if (length > batchBuildService.maxArchiveSize()) {
+            response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                    "Archive exceeds " + batchBuildService.maxArchiveSize() + " bytes");
+            return;
+        }
+
+        try (InputStream in = request.getInputStream()) {
+            writeBatch(in, response);
+        }
+    }
+
+    private void writeBatch(InputStream in, HttpServletResponse response) throws IOException {
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename("factur-x-batch.zip").build().toString());
+        batchBuildService.buildBatch(in, response.getOutputStream());
+    }
+}
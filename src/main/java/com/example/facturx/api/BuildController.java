@@ -1,9 +1,19 @@
 package com.example.facturx.api;
 
 import com.example.facturx.model.InvoiceDTO;
+import com.example.facturx.service.AdmissionRejectedException;
+import com.example.facturx.service.ExportAdmission;
+import com.example.facturx.service.FacturxExport;
 import com.example.facturx.service.FacturxService;
+import com.example.facturx.service.InvoiceReader;
+import com.example.facturx.service.PdfBudgetExceededException;
+import com.example.facturx.service.PdfSource;
+import com.example.facturx.service.ResultCache;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -11,42 +21,184 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/api")
 public class BuildController {
 
+    private static final Logger log = LoggerFactory.getLogger(BuildController.class);
+
     @Autowired
     private FacturxService facturxService;
 
+    @Autowired
+    private InvoiceReader invoiceReader;
+
+    @Autowired
+    private ExportAdmission admission;
+
+    @Autowired
+    private ResultCache resultCache;
+
     @PostMapping(value = "/build", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> buildFacturX(
-            @RequestPart("invoice") String invoiceJson,
-            @RequestPart("pdf") MultipartFile pdf) {
+    public ResponseEntity<StreamingResponseBody> buildFacturX(
+            @RequestPart("invoice") Part invoicePart,
+            @RequestPart("pdf") MultipartFile pdf,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            HttpServletRequest request) {
         
         try {
-            // Parse invoice JSON from text or file part
-            ObjectMapper mapper = new ObjectMapper();
-            InvoiceDTO invoice = mapper.readValue(invoiceJson, InvoiceDTO.class);
+            // Parse invoice JSON from text or file part, streaming straight from the part
+            InvoiceDTO invoice;
+            try (InputStream json = invoicePart.getInputStream()) {
+                invoice = invoiceReader.read(json);
+            }
 
-            System.out.println("Received invoice JSON length: " + (invoiceJson != null ? invoiceJson.length() : 0));
-            System.out.println("Received PDF: " + pdf.getOriginalFilename() + ", size: " + pdf.getSize());
-            
-            byte[] result = facturxService.buildFacturX(invoice, pdf);
+            log.debug("Received invoice JSON length: {}, PDF: {}, size: {}",
+                    invoicePart.getSize(), pdf.getOriginalFilename(), pdf.getSize());
+
+            if (resultCache.enabled()) {
+                return buildCached(invoice, pdf, idempotencyKey, request);
+            }
             
+            // Bounded concurrency: the slot is held from mapping until the PDF is fully written
+            // (or until the async request ends without the body ever running, see StreamGuard)
+            StreamGuard guard = new StreamGuard().add(admission.acquire());
+            try {
+                // Mapping and exporter loading happen here, so invalid input still maps to an error status;
+                // the PDF itself is written by Mustang straight into the response stream.
+                FacturxExport export = facturxService.prepare(invoice, pdf);
+                guard.add(export);
+                return pdfResponse(guard.stream(request, export::writeTo));
+            } catch (Exception e) {
+                guard.release();
+                throw e;
+            }
+
+        } catch (AdmissionRejectedException e) {
+            log.warn("Rejected build request: {}", e.getMessage());
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_PDF);
-            headers.setContentDispositionFormData("attachment", "factur-x.pdf");
-            
-            return new ResponseEntity<>(result, headers, HttpStatus.OK);
-            
+            headers.set(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+            HttpStatus status = e.getReason() == AdmissionRejectedException.Reason.QUEUE_FULL
+                    ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            return new ResponseEntity<>(headers, status);
+        } catch (PdfBudgetExceededException e) {
+            log.warn("Rejected build request: {}", e.getMessage());
+            StreamingResponseBody message = out -> out.write(e.getMessage().getBytes(StandardCharsets.UTF_8));
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).contentType(MediaType.TEXT_PLAIN).body(message);
+        } catch (JsonProcessingException e) {
+            log.warn("Invalid invoice JSON: {}", e.getOriginalMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            log.error("Error in buildFacturX: {}", e.getMessage(), e);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Nur die CII-XML (EN16931), ohne Quell-PDF: das Rechnungs-JSON kommt als Request-Body oder,
+     * wie bei /build, als Part {@code invoice}. Kein PDFBox-Export, daher auch keine Admission.
+     */
+    @PostMapping(value = "/build/xml", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> buildXml(InputStream json) {
+        return xmlResponse(json);
+    }
+
+    @PostMapping(value = "/build/xml", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<byte[]> buildXml(@RequestPart("invoice") Part invoicePart) {
+        try {
+            return xmlResponse(invoicePart.getInputStream());
+        } catch (Exception e) {
+            log.error("Error in buildXml: {}", e.getMessage(), e);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private ResponseEntity<byte[]> xmlResponse(InputStream json) {
+        try {
+            InvoiceDTO invoice;
+            try (json) {
+                invoice = invoiceReader.read(json);
+            }
+            byte[] xml = facturxService.buildXml(invoice);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_XML);
+            headers.setContentDispositionFormData("attachment", "factur-x.xml");
+            return new ResponseEntity<>(xml, headers, HttpStatus.OK);
         } catch (JsonProcessingException e) {
-            System.err.println("Invalid invoice JSON: " + e.getMessage());
+            log.warn("Invalid invoice JSON: {}", e.getOriginalMessage());
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
-            System.err.println("Error in buildFacturX: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error in buildXml: {}", e.getMessage(), e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Variante mit Ergebnis-Cache: ein Treffer wird ohne Mustang ausgeliefert, gleichzeitige
+     * identische Requests warten auf die erste Berechnung statt selbst zu rechnen.
+     */
+    private ResponseEntity<StreamingResponseBody> buildCached(InvoiceDTO invoice, MultipartFile pdf,
+                                                              String idempotencyKey,
+                                                              HttpServletRequest request) throws Exception {
+        PdfSource src = facturxService.ingest(pdf);
+        // Quell-PDF, Cache-Claim, Permit und Export gehören ab hier dem Guard (auch bei Async-Timeout)
+        StreamGuard guard = new StreamGuard().add(src);
+        try {
+            String key = resultCache.key(invoice, src);
+            if (idempotencyKey != null && !resultCache.bindIdempotencyKey(idempotencyKey, key)) {
+                log.warn("Idempotency-Key {} reused for a different request", idempotencyKey);
+                guard.release();
+                return new ResponseEntity<>(HttpStatus.UNPROCESSABLE_ENTITY);
+            }
+
+            InputStream cached = resultCache.open(key);
+            boolean leader = false;
+            if (cached == null) {
+                ResultCache.Claim claim = resultCache.claim(key);
+                if (claim.leader()) {
+                    leader = true;
+                    // Einzige Freigabe: nach dem Schreiben bzw. wenn der Body nie läuft
+                    guard.add(claim);
+                } else {
+                    claim.await();
+                    cached = resultCache.open(key);
+                }
+            }
+            if (cached != null) {
+                InputStream in = cached;
+                guard.add(in);
+                return pdfResponse(guard.stream(request, in::transferTo));
+            }
+
+            // Nur der Erste rechnet mit Aufzeichnung; wer vergeblich gewartet hat, rechnet ungecacht
+            guard.add(admission.acquire());
+            FacturxExport export = facturxService.prepare(invoice, src);
+            guard.add(export);
+            if (!leader) {
+                return pdfResponse(guard.stream(request, export::writeTo));
+            }
+            return pdfResponse(guard.stream(request, out -> {
+                try (ResultCache.Recording recording = resultCache.record(key, out)) {
+                    export.writeTo(recording);
+                    recording.commit();
+                }
+            }));
+        } catch (Exception e) {
+            guard.release();
+            throw e;
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> pdfResponse(StreamingResponseBody body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentDispositionFormData("attachment", "factur-x.pdf");
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.facturx.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Legt je Request eine Korrelations-ID in den MDC ({@code correlationId}).
+ *
+ * Übernimmt den Header {@code X-Correlation-ID} des Aufrufers, sofern er nur aus
+ * {@code [A-Za-z0-9._-]} besteht und höchstens 64 Zeichen lang ist; sonst wird eine ID erzeugt,
+ * damit z.B. CR/LF im Header keine Logzeilen fälschen kann. Die ID wird im Response-Header
+ * zurückgegeben und erscheint über {@code logging.pattern.level} in jeder Logzeile des Requests,
+ * auch im gestreamten Export ({@link StreamGuard}) und im Export-Pool.
+ */
+@Component
+public class CorrelationIdFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Correlation-ID";
+    public static final String MDC_KEY = "correlationId";
+
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        String id = request.getHeader(HEADER);
+        if (id == null || !VALID_ID.matcher(id).matches()) {
+            id = UUID.randomUUID().toString();
+        }
+        MDC.put(MDC_KEY, id);
+        response.setHeader(HEADER, id);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            MDC.remove(MDC_KEY);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.facturx.api;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.example.facturx.service.AdmissionRejectedException;
+import com.example.facturx.service.InvoiceReader;
+import com.example.facturx.service.JobService;
+import com.example.facturx.service.ResultStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.servlet.http.Part;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Asynchrone Variante von {@code /api/build}: Einreichen, Status abfragen, Ergebnis abholen.
+ */
+@RestController
+@RequestMapping("/api/jobs")
+public class JobController {
+
+    private static final Logger log = LoggerFactory.getLogger(JobController.class);
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private InvoiceReader invoiceReader;
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<JobService.JobStatus> submit(
+            @RequestPart("invoice") Part invoicePart,
+            @RequestPart("pdf") MultipartFile pdf) {
+        try {
+            InvoiceDTO invoice;
+            try (InputStream json = invoicePart.getInputStream()) {
+                invoice = invoiceReader.read(json);
+            }
+            JobService.JobStatus status = jobService.submit(invoice, pdf);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/jobs/" + status.jobId()))
+                    .body(status);
+
+        } catch (AdmissionRejectedException e) {
+            log.warn("Rejected job submission: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (JsonProcessingException e) {
+            log.warn("Invalid invoice JSON: {}", e.getOriginalMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("Error submitting job: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<JobService.JobStatus> status(@PathVariable("id") String id) {
+        JobService.JobStatus status = jobService.status(id);
+        return status != null ? ResponseEntity.ok(status) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Liefert das PDF aus einem bereits geöffneten Stream; der Resource-Converter schließt ihn nach
+     * dem Schreiben, erst dann darf der {@code ResultStore} die Datei löschen.
+     */
+    @GetMapping("/{id}/result")
+    public ResponseEntity<?> result(@PathVariable("id") String id) throws IOException {
+        JobService.JobStatus status = jobService.status(id);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        ResultStore.StoredResult result = jobService.openResult(id);
+        if (result == null) {
+            if (status.status() == JobService.State.DONE) {
+                // Fertig, aber das Ergebnis wurde bereits verdrängt
+                return ResponseEntity.notFound().build();
+            }
+            // Noch nicht fertig oder fehlgeschlagen
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(status);
+        }
+        Resource body = new InputStreamResource(result);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_PDF);
+        headers.setContentLength(result.size());
+        headers.setContentDispositionFormData("attachment", "factur-x.pdf");
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+}
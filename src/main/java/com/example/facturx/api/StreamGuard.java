@@ -0,0 +1,90 @@
+package com.example.facturx.api;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gibt die Ressourcen eines gestreamten Exports (Admission-Permit, Export, Quell-PDF, Cache-Claim)
+ * genau einmal frei.
+ *
+ * Normalerweise übernimmt der {@link StreamingResponseBody} sie und schließt sie nach dem
+ * Schreiben. Läuft der Body nie (Async-Timeout, Client-Abbruch, Fehler vor dem Start), schließt
+ * der Abschluss-Callback des asynchronen Requests sie; wer zuerst kommt, gewinnt. Ohne das würde
+ * jeder verlorene Body einen Admission-Slot dauerhaft belegen.
+ */
+final class StreamGuard implements CallableProcessingInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamGuard.class);
+
+    private final AtomicBoolean taken = new AtomicBoolean();
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+
+    /** Ressourcen werden in umgekehrter Reihenfolge geschlossen. */
+    synchronized StreamGuard add(AutoCloseable resource) {
+        resources.push(resource);
+        return this;
+    }
+
+    /**
+     * Verpackt das Schreiben so, dass der Body die Ressourcen übernimmt und danach schließt. Meldet
+     * zugleich den Abschluss-Callback am asynchronen Request an. Der Body läuft im Async-Executor;
+     * der MDC des Requests (Korrelations-ID) wird dorthin mitgenommen.
+     */
+    StreamingResponseBody stream(HttpServletRequest request, StreamingResponseBody body) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(this, this);
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return out -> {
+            if (mdc != null) MDC.setContextMap(mdc);
+            try {
+                if (!taken.compareAndSet(false, true)) {
+                    throw new IOException("Request already completed, export resources were released");
+                }
+                try {
+                    body.writeTo(out);
+                } finally {
+                    closeAll();
+                }
+            } finally {
+                MDC.clear();
+            }
+        };
+    }
+
+    /** Für Fehler vor der Übergabe an den Body: gibt alles frei, falls der Body es nicht schon tut. */
+    void release() {
+        if (taken.compareAndSet(false, true)) {
+            closeAll();
+        }
+    }
+
+    @Override
+    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+        if (taken.compareAndSet(false, true)) {
+            log.warn("Async request completed before the export was written, releasing its resources");
+            closeAll();
+        }
+    }
+
+    private synchronized void closeAll() {
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Exception e) {
+                log.warn("Failed to release export resource: {}", e.getMessage());
+            }
+        }
+    }
+}
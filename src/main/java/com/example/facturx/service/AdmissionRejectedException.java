@@ -0,0 +1,28 @@
+package com.example.facturx.service;
+
+/**
+ * Der Export wurde von der {@link ExportAdmission} abgelehnt, weil Warteschlange oder Wartezeit
+ * ausgeschöpft sind. Der Aufrufer soll es nach {@link #getRetryAfterSeconds()} erneut versuchen.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+  public enum Reason {
+    /** Warteschlange voll – sofort abgelehnt (HTTP 429). */
+    QUEUE_FULL,
+    /** Kein Permit innerhalb der maximalen Wartezeit (HTTP 503). */
+    TIMEOUT
+  }
+
+  private final Reason reason;
+  private final long retryAfterSeconds;
+
+  public AdmissionRejectedException(Reason reason, long retryAfterSeconds) {
+    super(reason == Reason.QUEUE_FULL ? "Export queue is full" : "Timed out waiting for an export slot");
+    this.reason = reason;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public Reason getReason() { return reason; }
+
+  public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,332 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Verarbeitet viele Rechnungen in einem Aufruf.
+ *
+ * Eingabe ist ein ZIP mit Paaren {@code <name>.json} + {@code <name>.pdf}. Sobald beide Teile
+ * eines Paares gelesen sind, wird es an einen begrenzten Worker-Pool übergeben. Fertige
+ * Ergebnisse werden sofort als {@code <name>.pdf} bzw. {@code <name>.error.txt} in das Antwort-ZIP
+ * geschrieben; am Ende folgt {@code manifest.json} mit dem Status jedes Eintrags.
+ *
+ * Der Speicher ist begrenzt: ein Eintrag über {@code max-entry-size} und ein Halbpaar, das die
+ * Summe der wartenden Halbpaare über {@code max-pending-size} heben würde, werden nicht gelesen,
+ * sondern als Fehler des Paares gemeldet. Kollidierende Ausgabenamen erhalten ein Suffix
+ * ({@code name-2.pdf}). Das Archiv selbst ist auf {@code max-archive-size} begrenzt; es kommt
+ * entweder als Multipart-Part (unter den globalen Multipart-Limits) oder als Request-Body.
+ */
+@Service
+public class BatchBuildService {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchBuildService.class);
+
+  private static final String MANIFEST = "manifest.json";
+
+  @Autowired
+  private FacturxService facturxService;
+
+  @Autowired
+  private InvoiceReader invoiceReader;
+
+  @Autowired
+  private ExportAdmission admission;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private final ExecutorService workers;
+  private final int maxInFlight;
+  private final long maxEntrySize;
+  private final long maxPendingSize;
+  private final long maxArchiveSize;
+
+  public BatchBuildService(@Value("${facturx.batch.threads:0}") int threads,
+                           @Value("${facturx.batch.max-in-flight:0}") int maxInFlight,
+                           @Value("${facturx.batch.max-entry-size:64MB}") DataSize maxEntrySize,
+                           @Value("${facturx.batch.max-pending-size:256MB}") DataSize maxPendingSize,
+                           @Value("${facturx.batch.max-archive-size:2GB}") DataSize maxArchiveSize) {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.workers = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("fx-batch-"));
+    // Begrenzt, wie viele gelesene, aber noch nicht geschriebene Paare gleichzeitig im Speicher liegen
+    this.maxInFlight = maxInFlight > 0 ? maxInFlight : poolSize * 2;
+    this.maxEntrySize = maxEntrySize.toBytes();
+    this.maxPendingSize = maxPendingSize.toBytes();
+    this.maxArchiveSize = maxArchiveSize.toBytes();
+  }
+
+  /** Max. Größe eines Archivs in Bytes ({@code facturx.batch.max-archive-size}). */
+  public long maxArchiveSize() {
+    return maxArchiveSize;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    workers.shutdownNow();
+  }
+
+  /** Ergebnis eines Eintrags, so wie es im Manifest landet. */
+  public record EntryStatus(String name, String status, String file, String error, long millis) {}
+
+  private record EntryResult(String name, byte[] pdf, String error, long millis) {}
+
+  private static final class Pair {
+    byte[] json;
+    byte[] pdf;
+
+    long size() {
+      return (json != null ? json.length : 0) + (pdf != null ? pdf.length : 0);
+    }
+  }
+
+  /**
+   * Liest das Archiv und schreibt das Antwort-ZIP.
+   *
+   * @throws IOException auch, wenn das Archiv {@code max-archive-size} überschreitet; das
+   *     Antwort-ZIP ist dann unvollständig
+   */
+  public void buildBatch(InputStream zipIn, OutputStream out) throws IOException {
+    CompletionService<EntryResult> done = new ExecutorCompletionService<>(workers);
+    Map<String, Pair> pending = new LinkedHashMap<>();
+    List<EntryStatus> manifest = new ArrayList<>();
+    // Bereits vergebene Namen im Antwort-ZIP; ein doppelter Name würde putNextEntry scheitern lassen
+    Set<String> written = new HashSet<>(Set.of(MANIFEST));
+    // Abgelehnte Paare: ihr zweiter Teil wird übersprungen statt erneut gepuffert
+    Set<String> rejected = new HashSet<>();
+    long pendingSize = 0;
+    int inFlight = 0;
+    // Korrelations-ID des Aufrufs auch in den Worker-Threads loggen
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+
+    try (ZipInputStream zin = new ZipInputStream(new LimitedInputStream(zipIn, maxArchiveSize));
+         ZipOutputStream zout = new ZipOutputStream(out)) {
+      ZipEntry entry;
+      while ((entry = zin.getNextEntry()) != null) {
+        if (entry.isDirectory()) continue;
+        String entryName = safeName(entry.getName());
+        int dot = entryName.lastIndexOf('.');
+        String ext = dot > 0 ? entryName.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        if (!ext.equals("json") && !ext.equals("pdf")) {
+          log.debug("Batch: ignoring entry {}", entryName);
+          continue;
+        }
+        String base = entryName.substring(0, dot);
+        if (rejected.contains(base)) {
+          log.debug("Batch: skipping {} of rejected pair {}", ext, base);
+          continue;
+        }
+
+        byte[] data = zin.readNBytes((int) Math.min(maxEntrySize + 1, Integer.MAX_VALUE - 8));
+        Pair pair = pending.computeIfAbsent(base, k -> new Pair());
+        String error = null;
+        if (data.length > maxEntrySize) {
+          error = "Entry " + entryName + " exceeds " + maxEntrySize + " bytes";
+        } else if ((ext.equals("json") ? pair.pdf : pair.json) == null
+            && pendingSize + data.length > maxPendingSize) {
+          error = "Too many unmatched entries pending (" + maxPendingSize + " bytes); "
+              + "place " + base + ".json next to " + base + ".pdf in the archive";
+        }
+        if (error != null) {
+          pendingSize -= pending.remove(base).size();
+          rejected.add(base);
+          write(zout, manifest, written, new EntryResult(base, null, error, 0));
+          continue;
+        }
+
+        long before = pair.size();
+        if (ext.equals("json")) pair.json = data; else pair.pdf = data;
+        if (pair.json == null || pair.pdf == null) {
+          pendingSize += pair.size() - before;
+          continue;
+        }
+
+        pending.remove(base);
+        pendingSize -= before;
+        while (inFlight >= maxInFlight) {
+          write(zout, manifest, written, take(done));
+          inFlight--;
+        }
+        done.submit(() -> withMdc(mdc, () -> build(base, pair.json, pair.pdf)));
+        inFlight++;
+
+        // Bereits fertige Ergebnisse direkt rausschreiben, statt sie zu sammeln
+        for (var f = done.poll(); f != null; f = done.poll()) {
+          write(zout, manifest, written, get(f));
+          inFlight--;
+        }
+      }
+
+      for (; inFlight > 0; inFlight--) {
+        write(zout, manifest, written, take(done));
+      }
+      for (Map.Entry<String, Pair> e : pending.entrySet()) {
+        String missing = e.getValue().json == null ? "json" : "pdf";
+        write(zout, manifest, written, new EntryResult(e.getKey(), null, "Missing " + missing + " part", 0));
+      }
+
+      zout.putNextEntry(new ZipEntry(MANIFEST));
+      zout.write(objectMapper.writeValueAsBytes(manifest));
+      zout.closeEntry();
+    }
+  }
+
+  private EntryResult build(String name, byte[] json, byte[] pdf) {
+    long start = System.nanoTime();
+    try {
+      InvoiceDTO invoice = invoiceReader.read(json);
+      byte[] result;
+      try (ExportAdmission.Permit permit = admission.acquireBlocking()) {
+        result = facturxService.buildFacturX(invoice, PdfSource.fromBytes(pdf));
+      }
+      return new EntryResult(name, result, null, (System.nanoTime() - start) / 1_000_000);
+    } catch (Exception e) {
+      log.warn("Batch entry {} failed: {}", name, e.getMessage());
+      String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+      return new EntryResult(name, null, error, (System.nanoTime() - start) / 1_000_000);
+    }
+  }
+
+  private static <T> T withMdc(Map<String, String> mdc, Supplier<T> task) {
+    if (mdc == null) return task.get();
+    MDC.setContextMap(mdc);
+    try {
+      return task.get();
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private static void write(ZipOutputStream zout, List<EntryStatus> manifest, Set<String> written,
+                            EntryResult r) throws IOException {
+    if (r.pdf() != null) {
+      String file = uniqueName(written, r.name(), ".pdf");
+      zout.putNextEntry(new ZipEntry(file));
+      zout.write(r.pdf());
+      zout.closeEntry();
+      manifest.add(new EntryStatus(r.name(), "ok", file, null, r.millis()));
+    } else {
+      String file = uniqueName(written, r.name(), ".error.txt");
+      zout.putNextEntry(new ZipEntry(file));
+      zout.write(r.error().getBytes(StandardCharsets.UTF_8));
+      zout.closeEntry();
+      manifest.add(new EntryStatus(r.name(), "error", file, r.error(), r.millis()));
+    }
+    zout.flush();
+  }
+
+  private static EntryResult take(CompletionService<EntryResult> done) throws IOException {
+    try {
+      return get(done.take());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Batch interrupted", e);
+    }
+  }
+
+  private static EntryResult get(Future<EntryResult> f) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Batch interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Batch worker failed", e.getCause());
+    }
+  }
+
+  /**
+   * Gleiche Basisnamen entstehen z. B. durch Einträge, die nach {@link #safeName} auf denselben Pfad
+   * fallen, oder durch ein Paar, das im Archiv mehrfach vorkommt.
+   */
+  private static String uniqueName(Set<String> written, String base, String suffix) {
+    String file = base + suffix;
+    for (int i = 2; !written.add(file); i++) {
+      file = base + "-" + i + suffix;
+    }
+    return file;
+  }
+
+  /** Entfernt Pfadanteile wie {@code ../} oder führende Slashes aus Eintragsnamen. */
+  private static String safeName(String name) {
+    String n = name.replace('\\', '/');
+    StringBuilder sb = new StringBuilder();
+    for (String seg : n.split("/")) {
+      if (seg.isEmpty() || seg.equals(".") || seg.equals("..")) continue;
+      if (sb.length() > 0) sb.append('/');
+      sb.append(seg);
+    }
+    return sb.toString();
+  }
+
+  /** Bricht mit einer IOException ab, sobald mehr als {@code max} Bytes gelesen würden. */
+  private static final class LimitedInputStream extends FilterInputStream {
+    private final long max;
+    private long read;
+
+    LimitedInputStream(InputStream in, long max) {
+      super(in);
+      this.max = max;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) count(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) count(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long n) throws IOException {
+      read += n;
+      if (read > max) {
+        throw new IOException("Archive exceeds " + max + " bytes");
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Micrometer-Metriken der Factur-X-Pipeline.
+ *
+ * <ul>
+ *   <li>{@code facturx.build.stage} – Timer je Stufe (json_parse, pdf_ingest, mapping, rounding,
+ *       exporter_load, export, xml); exporter_load zusätzlich mit {@code exporter} und {@code fallback}</li>
+ *   <li>{@code facturx.build.bytes} – Größe von Eingangs- und Ausgangsdokument ({@code direction=in|out})</li>
+ *   <li>{@code facturx.exporter.selected} – gewählter Exporter je Absender, für die A3-Fallback-Rate</li>
+ *   <li>{@code facturx.exporter.decision} – woher die Exporter-Wahl kam ({@code source=template|probe|memo})</li>
+ *   <li>{@code facturx.totals.mismatch} – Abweichungen Festkomma vs. BigDecimal ({@code facturx.totals.engine=shadow})</li>
+ * </ul>
+ */
+@Component
+public class BuildMetrics {
+
+  public static final String STAGE_TIMER = "facturx.build.stage";
+  public static final String BYTES = "facturx.build.bytes";
+  public static final String EXPORTER_SELECTED = "facturx.exporter.selected";
+  public static final String TOTALS_MISMATCH = "facturx.totals.mismatch";
+  public static final String EXPORTER_DECISION = "facturx.exporter.decision";
+
+  public enum Stage {
+    JSON_PARSE("json_parse"),
+    PDF_INGEST("pdf_ingest"),
+    MAPPING("mapping"),
+    ROUNDING("rounding"),
+    EXPORTER_LOAD("exporter_load"),
+    EXPORT("export"),
+    XML("xml");
+
+    final String tag;
+
+    Stage(String tag) { this.tag = tag; }
+  }
+
+  private final MeterRegistry registry;
+  private final Timer jsonParse;
+  private final Timer ingestInMemory;
+  private final Timer ingestSpilled;
+  private final Timer mapping;
+  private final Timer rounding;
+  private final Timer export;
+  private final Timer xml;
+  private final DistributionSummary bytesIn;
+  private final DistributionSummary bytesOut;
+
+  public BuildMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    this.jsonParse = stageTimer(Stage.JSON_PARSE);
+    this.ingestInMemory = Timer.builder(STAGE_TIMER).tags("stage", Stage.PDF_INGEST.tag, "spilled", "false").register(registry);
+    this.ingestSpilled = Timer.builder(STAGE_TIMER).tags("stage", Stage.PDF_INGEST.tag, "spilled", "true").register(registry);
+    this.mapping = stageTimer(Stage.MAPPING);
+    this.rounding = stageTimer(Stage.ROUNDING);
+    this.export = stageTimer(Stage.EXPORT);
+    this.xml = stageTimer(Stage.XML);
+    this.bytesIn = bytes("in");
+    this.bytesOut = bytes("out");
+  }
+
+  public Timer.Sample start() {
+    return Timer.start(registry);
+  }
+
+  public void stop(Timer.Sample sample, Stage stage) {
+    switch (stage) {
+      case JSON_PARSE -> sample.stop(jsonParse);
+      case MAPPING -> sample.stop(mapping);
+      case ROUNDING -> sample.stop(rounding);
+      case EXPORT -> sample.stop(export);
+      case XML -> sample.stop(xml);
+      default -> throw new IllegalArgumentException("Stage needs extra tags: " + stage);
+    }
+  }
+
+  public void ingested(Timer.Sample sample, PdfSource src) {
+    sample.stop(src.inMemory() ? ingestInMemory : ingestSpilled);
+  }
+
+  public void received(long bytes) {
+    bytesIn.record(bytes);
+  }
+
+  /**
+   * @param path     der letztlich verwendete Exporter
+   * @param fallback ob ZUGFeRDExporterFromPDFA vorher versucht wurde und scheiterte
+   * @param sender   Absender-Schlüssel (USt-IdNr. oder Name), {@code null} wenn unbekannt
+   */
+  public void exporterLoaded(Timer.Sample sample, FacturxService.ExporterPath path, boolean fallback, String sender) {
+    String exporter = path.name().toLowerCase(Locale.ROOT);
+    sample.stop(registry.timer(STAGE_TIMER, "stage", Stage.EXPORTER_LOAD.tag,
+        "exporter", exporter, "fallback", Boolean.toString(fallback)));
+    Counter.builder(EXPORTER_SELECTED)
+        .tags("exporter", exporter, "fallback", Boolean.toString(fallback),
+            "sender", sender != null ? sender : "unknown")
+        .register(registry)
+        .increment();
+  }
+
+  /** Herkunft der Exporter-Wahl: Vorlagen-Cache, XMP-Prüfung oder Exporter-Memo des Absenders. */
+  public void exporterDecision(String source) {
+    registry.counter(EXPORTER_DECISION, "source", source).increment();
+  }
+
+  public void exported(long bytes) {
+    bytesOut.record(bytes);
+  }
+
+  /** Abweichung der Festkomma-Engine vom BigDecimal-Ergebnis im Shadow-Modus ({@code scope=line}). */
+  public void totalsMismatch(String scope) {
+    registry.counter(TOTALS_MISMATCH, "scope", scope).increment();
+  }
+
+  private Timer stageTimer(Stage stage) {
+    return Timer.builder(STAGE_TIMER).tags("stage", stage.tag).register(registry);
+  }
+
+  private DistributionSummary bytes(String direction) {
+    return DistributionSummary.builder(BYTES).baseUnit("bytes").tags("direction", direction).register(registry);
+  }
+}
@@ -0,0 +1,206 @@
+package com.example.facturx.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable lookup table from normalized country names to ISO-3166-1 alpha-2 codes.
+ *
+ * The names are stored in an array-backed trie over the letters a-z. {@link #lookup} normalizes
+ * the input while walking the trie, one character at a time: letters are lower-cased, umlauts
+ * and ß are expanded (ä → ae, ö → oe, ü → ue, ß → ss) and everything else is skipped. No regex
+ * and no intermediate strings are involved, and a miss usually ends after a few characters.
+ *
+ * For misspelled input, {@link #nearest} scans the normalized names by edit distance. That is
+ * far more expensive and meant to be called behind a cache.
+ */
+final class CountryTable {
+
+    private static final int ALPHABET = 26;
+
+    /** {@code next[node * 26 + letter]} is the child node, 0 if there is none (root is node 0). */
+    private final int[] next;
+    /** Country code of the name ending at a node, or {@code null}. */
+    private final String[] codes;
+    /** Normalized names and their codes, parallel arrays for {@link #nearest}. */
+    private final String[] names;
+    private final String[] nameCodes;
+
+    /** Result of a fuzzy lookup. */
+    record Match(String code, String name, int distance) {}
+
+    private CountryTable(int[] next, String[] codes, String[] names, String[] nameCodes) {
+        this.next = next;
+        this.codes = codes;
+        this.names = names;
+        this.nameCodes = nameCodes;
+    }
+
+    /**
+     * Builds the table. Keys are normalized the same way as lookups, so "Tunesien" and "tunesien"
+     * are the same entry.
+     *
+     * @throws IllegalArgumentException if two keys normalize to the same name with different codes
+     */
+    static CountryTable build(Map<String, String> mapping) {
+        int[] next = new int[64 * ALPHABET];
+        String[] codes = new String[64];
+        int nodes = 1;
+        Map<String, String> distinct = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> e : mapping.entrySet()) {
+            String key = normalize(e.getKey());
+            if (key.isEmpty()) {
+                throw new IllegalArgumentException("Empty country name for code " + e.getValue());
+            }
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                int slot = node * ALPHABET + (key.charAt(i) - 'a');
+                if (next[slot] == 0) {
+                    if (nodes == codes.length) {
+                        codes = Arrays.copyOf(codes, nodes * 2);
+                        next = Arrays.copyOf(next, nodes * 2 * ALPHABET);
+                    }
+                    next[slot] = nodes++;
+                }
+                node = next[slot];
+            }
+            String existing = codes[node];
+            if (existing != null && !existing.equals(e.getValue())) {
+                throw new IllegalArgumentException("Conflicting codes for '" + key + "': "
+                    + existing + " and " + e.getValue());
+            }
+            codes[node] = e.getValue();
+            distinct.put(key, e.getValue());
+        }
+        return new CountryTable(Arrays.copyOf(next, nodes * ALPHABET), Arrays.copyOf(codes, nodes),
+            distinct.keySet().toArray(new String[0]), distinct.values().toArray(new String[0]));
+    }
+
+    /** Number of distinct normalized names. */
+    int size() {
+        return names.length;
+    }
+
+    /** Returns the code for {@code name}, or {@code null} if the normalized name is unknown. */
+    String lookup(CharSequence name) {
+        int node = 0;
+        for (int i = 0, n = name.length(); i < n && node >= 0; i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (c >= 'a' && c <= 'z') {
+                node = step(node, c);
+            } else if (c == 'ä') {
+                node = step(step(node, 'a'), 'e');
+            } else if (c == 'ö') {
+                node = step(step(node, 'o'), 'e');
+            } else if (c == 'ü') {
+                node = step(step(node, 'u'), 'e');
+            } else if (c == 'ß') {
+                node = step(step(node, 's'), 's');
+            }
+        }
+        // codes[0] is always null: empty names are rejected when building
+        return node >= 0 ? codes[node] : null;
+    }
+
+    /**
+     * Finds the name closest to {@code normalized} (Damerau-Levenshtein, adjacent transpositions),
+     * provided it is within {@code maxDistance}. Returns {@code null} if nothing is close enough or
+     * if the best distance is shared by names of different countries.
+     */
+    Match nearest(String normalized, int maxDistance) {
+        Match best = null;
+        boolean ambiguous = false;
+        int[][] rows = new int[3][];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int limit = best != null ? best.distance() : maxDistance;
+            if (Math.abs(name.length() - normalized.length()) > limit) {
+                continue;
+            }
+            int d = distance(normalized, name, limit, rows);
+            if (d > limit) {
+                continue;
+            }
+            if (best == null || d < best.distance()) {
+                best = new Match(nameCodes[i], name, d);
+                ambiguous = false;
+            } else if (!best.code().equals(nameCodes[i])) {
+                ambiguous = true;
+            }
+        }
+        return ambiguous ? null : best;
+    }
+
+    /** Edit distance of a and b, or any value above {@code limit} once it is certain to exceed it. */
+    private static int distance(String a, String b, int limit, int[][] rows) {
+        int n = b.length();
+        for (int r = 0; r < 3; r++) {
+            if (rows[r] == null || rows[r].length < n + 1) {
+                rows[r] = new int[n + 1];
+            }
+        }
+        int[] prev2 = rows[0];
+        int[] prev = rows[1];
+        int[] cur = rows[2];
+        for (int j = 0; j <= n; j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= n; j++) {
+                char cb = b.charAt(j - 1);
+                int cost = ca == cb ? 0 : 1;
+                int v = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                    v = Math.min(v, prev2[j - 2] + 1);
+                }
+                cur[j] = v;
+                rowMin = Math.min(rowMin, v);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[n];
+    }
+
+    /** Next node, or -1 once the walk has left the trie. */
+    private int step(int node, char letter) {
+        if (node < 0) {
+            return -1;
+        }
+        int child = next[node * ALPHABET + (letter - 'a')];
+        return child != 0 ? child : -1;
+    }
+
+    /**
+     * Normalizes a country name: lower case, umlauts and ß expanded, all other characters removed.
+     * Used for building keys; {@link #lookup} applies the same rules on the fly.
+     */
+    static String normalize(CharSequence name) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0, n = name.length(); i < n; i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (c >= 'a' && c <= 'z') {
+                sb.append(c);
+            } else if (c == 'ä') {
+                sb.append("ae");
+            } else if (c == 'ö') {
+                sb.append("oe");
+            } else if (c == 'ü') {
+                sb.append("ue");
+            } else if (c == 'ß') {
+                sb.append("ss");
+            }
+        }
+        return sb.toString();
+    }
+}
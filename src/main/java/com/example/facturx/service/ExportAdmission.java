@@ -0,0 +1,138 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Zugangskontrolle vor dem PDF-Export.
+ *
+ * Nur {@code permits} Exporte laufen gleichzeitig; bis zu {@code queue-size} weitere Anfragen
+ * warten höchstens {@code max-wait}. Ist die Warteschlange voll, wird sofort abgelehnt, statt
+ * unter Last den Heap zu sprengen. Ohne explizite Konfiguration richtet sich die Zahl der
+ * Permits nach CPU-Kernen und dem pro Export veranschlagten Heap.
+ */
+@Component
+public class ExportAdmission {
+
+  private static final Logger log = LoggerFactory.getLogger(ExportAdmission.class);
+
+  private final Semaphore permits;
+  private final int permitCount;
+  private final int queueSize;
+  private final Duration maxWait;
+  private final long retryAfterSeconds;
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  private final Timer waitTimer;
+  private final Counter rejectedQueueFull;
+  private final Counter rejectedTimeout;
+
+  public ExportAdmission(MeterRegistry registry,
+                         @Value("${facturx.admission.permits:0}") int permits,
+                         @Value("${facturx.admission.heap-per-export:256MB}") DataSize heapPerExport,
+                         @Value("${facturx.admission.queue-size:50}") int queueSize,
+                         @Value("${facturx.admission.max-wait:30s}") Duration maxWait,
+                         @Value("${facturx.admission.retry-after:5s}") Duration retryAfter) {
+    this.permitCount = permits > 0 ? permits : defaultPermits(heapPerExport);
+    this.permits = new Semaphore(permitCount, true);
+    this.queueSize = queueSize;
+    this.maxWait = maxWait;
+    this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+    log.info("Export admission: {} permits, queue size {}, max wait {}", permitCount, queueSize, maxWait);
+
+    this.waitTimer = Timer.builder("facturx.admission.wait").register(registry);
+    this.rejectedQueueFull = Counter.builder("facturx.admission.rejected").tag("reason", "queue_full").register(registry);
+    this.rejectedTimeout = Counter.builder("facturx.admission.rejected").tag("reason", "timeout").register(registry);
+    Gauge.builder("facturx.admission.queue.depth", waiting, AtomicInteger::get).register(registry);
+    Gauge.builder("facturx.admission.in.flight", this.permits, p -> permitCount - p.availablePermits()).register(registry);
+  }
+
+  /** Min(CPU-Kerne, maxHeap / Heap pro Export), mindestens 1. */
+  private static int defaultPermits(DataSize heapPerExport) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    long byHeap = Runtime.getRuntime().maxMemory() / Math.max(1, heapPerExport.toBytes());
+    return (int) Math.max(1, Math.min(cores, byHeap));
+  }
+
+  /** Belegter Export-Slot; {@link #close()} gibt ihn (einmalig) wieder frei. */
+  public final class Permit implements AutoCloseable {
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit() {}
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        permits.release();
+      }
+    }
+  }
+
+  /**
+   * Für HTTP-Anfragen: wartet höchstens {@code max-wait} und lehnt bei voller Warteschlange sofort ab.
+   *
+   * @throws AdmissionRejectedException wenn kein Slot vergeben werden kann
+   */
+  public Permit acquire() {
+    if (permits.tryAcquire()) {
+      waitTimer.record(0, TimeUnit.NANOSECONDS);
+      return new Permit();
+    }
+    if (waiting.incrementAndGet() > queueSize) {
+      waiting.decrementAndGet();
+      rejectedQueueFull.increment();
+      throw new AdmissionRejectedException(AdmissionRejectedException.Reason.QUEUE_FULL, retryAfterSeconds);
+    }
+    long start = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+        rejectedTimeout.increment();
+        throw new AdmissionRejectedException(AdmissionRejectedException.Reason.TIMEOUT, retryAfterSeconds);
+      }
+      return new Permit();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AdmissionRejectedException(AdmissionRejectedException.Reason.TIMEOUT, retryAfterSeconds);
+    } finally {
+      waiting.decrementAndGet();
+      waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Für interne, bereits begrenzte Worker-Pools (Batch, Jobs): wartet ohne Limit, zählt aber in
+   * Warteschlange und Wartezeit mit, damit alle Exporte dieselben Slots teilen.
+   */
+  public Permit acquireBlocking() throws InterruptedException {
+    if (permits.tryAcquire()) {
+      waitTimer.record(0, TimeUnit.NANOSECONDS);
+      return new Permit();
+    }
+    waiting.incrementAndGet();
+    long start = System.nanoTime();
+    try {
+      permits.acquire();
+      return new Permit();
+    } finally {
+      waiting.decrementAndGet();
+      waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  public int getPermitCount() {
+    return permitCount;
+  }
+}
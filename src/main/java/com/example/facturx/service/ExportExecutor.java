@@ -0,0 +1,92 @@
+package com.example.facturx.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Führt den CPU-lastigen Mustang-Export aus.
+ *
+ * Im Standardbetrieb läuft der Export direkt im aufrufenden Thread. Mit
+ * {@code spring.threads.virtual.enabled=true} auf JDK 21 (Profil {@code java21}) laufen Request-Annahme, Multipart-Upload und
+ * Temp-Datei-I/O auf virtuellen Threads; der Export selbst wird dann an einen begrenzten Pool von
+ * Plattform-Threads übergeben, damit er keine Carrier-Threads blockiert (PDFBox synchronisiert
+ * intern) und die CPU-Last begrenzt bleibt. Der virtuelle Thread wartet derweil nur.
+ */
+@Component
+public class ExportExecutor {
+
+  private static final Logger log = LoggerFactory.getLogger(ExportExecutor.class);
+
+  /** Export-Schritt, der in den Ziel-Stream schreibt. */
+  @FunctionalInterface
+  public interface ExportTask {
+    void run() throws IOException;
+  }
+
+  private final ExecutorService pool;
+
+  public ExportExecutor(Environment environment,
+                        @Value("${facturx.export.platform-threads:0}") int threads) {
+    // Dieselbe Bedingung wie Springs Auto-Konfiguration: die Property allein reicht auf JDK 17 nicht
+    if (Threading.VIRTUAL.isActive(environment)) {
+      int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      this.pool = Executors.newFixedThreadPool(size, new CustomizableThreadFactory("fx-export-"));
+      log.info("Virtual threads enabled, exports run on {} platform threads", size);
+    } else {
+      this.pool = null;
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  public void execute(ExportTask task) throws IOException {
+    if (pool == null) {
+      task.run();
+      return;
+    }
+    // Korrelations-ID des Requests auch in den Logzeilen des Pool-Threads
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    Future<?> future = pool.submit(() -> {
+      if (mdc != null) MDC.setContextMap(mdc);
+      try {
+        task.run();
+        return null;
+      } finally {
+        MDC.clear();
+      }
+    });
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Export interrupted");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException io) throw io;
+      if (cause instanceof RuntimeException re) throw re;
+      if (cause instanceof Error err) throw err;
+      throw new IOException(cause);
+    }
+  }
+}
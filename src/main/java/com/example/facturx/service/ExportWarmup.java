@@ -0,0 +1,99 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Optionaler Warm-up beim Start ({@code facturx.warmup.enabled}).
+ *
+ * Schickt eine synthetische Rechnung durch {@link FacturxService#buildFacturX}, einmal mit einem
+ * einfachen PDF (ZUGFeRDExporterFromA3, inklusive PDF/A-3-Konvertierung mit Fonts und ICC-Profil)
+ * und einmal mit dessen PDF/A-3-Ergebnis (ZUGFeRDExporterFromPDFA), dazu {@link FacturxService#buildXml}.
+ * Dabei werden Jackson, Ländertabelle, Mapping, XML-Erzeugung und Exporter-Klassen geladen und
+ * vom JIT übersetzt. ApplicationRunner laufen vor dem ApplicationReadyEvent; die Readiness
+ * ({@code /actuator/health/readiness}) wechselt daher erst danach auf ACCEPTING_TRAFFIC.
+ *
+ * Fehler im Warm-up werden nur geloggt, damit eine Instanz nicht dauerhaft unbereit bleibt.
+ */
+@Component
+public class ExportWarmup implements ApplicationRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(ExportWarmup.class);
+
+  private final FacturxService facturxService;
+  private final InvoiceReader invoiceReader;
+  private final ResourceLoader resourceLoader;
+  private final boolean enabled;
+  private final int iterations;
+
+  public ExportWarmup(FacturxService facturxService, InvoiceReader invoiceReader, ResourceLoader resourceLoader,
+                      @Value("${facturx.warmup.enabled:false}") boolean enabled,
+                      @Value("${facturx.warmup.iterations:3}") int iterations) {
+    this.facturxService = facturxService;
+    this.invoiceReader = invoiceReader;
+    this.resourceLoader = resourceLoader;
+    this.enabled = enabled;
+    this.iterations = iterations;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!enabled) return;
+    long start = System.nanoTime();
+    try {
+      byte[] plain = plainPdf();
+      for (int i = 0; i < iterations; i++) {
+        // Das A3-Ergebnis ist PDF/A-3 und geht damit beim zweiten Lauf durch ZUGFeRDExporterFromPDFA
+        byte[] pdfA = facturxService.buildFacturX(invoice(), PdfSource.fromBytes(plain));
+        facturxService.buildFacturX(invoice(), PdfSource.fromBytes(pdfA));
+        facturxService.buildXml(invoice());
+      }
+      log.info("Export warm-up finished: {} iterations in {} ms", iterations, (System.nanoTime() - start) / 1_000_000);
+    } catch (Exception e) {
+      log.warn("Export warm-up failed after {} ms: {}", (System.nanoTime() - start) / 1_000_000, e.getMessage(), e);
+    }
+  }
+
+  /** Liest die Rechnung jedes Mal neu, damit auch der JSON-Pfad warm wird. */
+  private InvoiceDTO invoice() throws IOException {
+    Resource resource = resourceLoader.getResource("classpath:warmup-invoice.json");
+    try (InputStream in = resource.getInputStream()) {
+      return invoiceReader.read(in);
+    }
+  }
+
+  /** Einseitiges Nicht-PDF/A-Dokument mit Text, wie typische Rechnungsvorlagen. */
+  private static byte[] plainPdf() throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      PDPage page = new PDPage(PDRectangle.A4);
+      doc.addPage(page);
+      try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+        content.beginText();
+        content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+        content.newLineAtOffset(56, 780);
+        content.showText("Warm-up");
+        content.endText();
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      doc.save(out);
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.example.facturx.service;
+
+import com.example.facturx.service.FacturxService.ExporterPath;
+import com.example.facturx.service.PdfAConformanceProbe.Conformance;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Merkt sich je Absender, welcher Exporter für seine Quell-PDFs zuletzt funktioniert hat, samt
+ * der XMP-Kennung des zuletzt geprüften PDFs. Wiederholte Absender überspringen damit die
+ * XMP-Prüfung ({@link PdfAConformanceProbe}) ganz; der Absender ist schon vor dem Lesen des PDFs
+ * bekannt, das erzeugende Programm erst danach.
+ *
+ * Einträge verfallen nach {@code ttl} (danach zählt auch ein früher angenommenes PDF/A nicht mehr),
+ * und jede {@code reverifyEvery}-te Verwendung prüft das PDF erneut und folgt dieser Prüfung. Ein
+ * einzelnes abgelehntes PDF legt den Absender so nicht dauerhaft auf den A3-Exporter fest.
+ */
+final class ExporterMemo {
+
+  /** Liefert die XMP-Kennung des aktuellen Quell-PDFs. */
+  interface Probe {
+    Conformance probe() throws IOException;
+  }
+
+  /**
+   * Exporter-Wahl für ein Quell-PDF.
+   *
+   * @param conformance XMP-Kennung, bei {@code remembered} die des zuletzt geprüften PDFs des Absenders
+   * @param path        zu versuchender Exporter
+   * @param remembered  aus dem Memo, ohne Prüfung dieses PDFs
+   * @param pdfASince   seit wann ZUGFeRDExporterFromPDFA PDFs des Absenders annimmt, sonst {@code null}
+   */
+  record Selection(Conformance conformance, ExporterPath path, boolean remembered, Instant pdfASince) {}
+
+  private record Route(ExporterPath path, Conformance conformance, Instant since, int uses) {}
+
+  private final LruCache<String, Route> routes;
+  private final Duration ttl;
+  private final int reverifyEvery;
+  private final Clock clock;
+
+  ExporterMemo(int maxEntries, Duration ttl, int reverifyEvery, Clock clock) {
+    this.routes = new LruCache<>(Math.max(1, maxEntries));
+    this.ttl = ttl;
+    this.reverifyEvery = Math.max(1, reverifyEvery);
+    this.clock = clock;
+  }
+
+  /** Gemerkter Weg des Absenders oder, ohne gültigen Eintrag bzw. zur Nachprüfung, die XMP-Prüfung. */
+  Selection select(String sender, Probe probe) throws IOException {
+    Route route = sender != null ? routes.get(sender) : null;
+    if (route != null && !route.since().plus(ttl).isAfter(clock.instant())) {
+      route = null;
+    }
+    Instant pdfASince = route != null && route.path() == ExporterPath.PDFA ? route.since() : null;
+    if (route != null && route.uses() < reverifyEvery) {
+      routes.put(sender, new Route(route.path(), route.conformance(), route.since(), route.uses() + 1));
+      return new Selection(route.conformance(), route.path(), true, pdfASince);
+    }
+    Conformance conformance = probe.probe();
+    ExporterPath path = conformance != null && conformance.supportedByPdfAExporter() ? ExporterPath.PDFA : ExporterPath.A3;
+    return new Selection(conformance, path, false, pdfASince);
+  }
+
+  /** Nach dem Laden durch Mustang: {@code path} ist der Exporter, der das PDF tatsächlich geladen hat. */
+  void loaded(String sender, Selection selection, ExporterPath path) {
+    if (sender == null || (selection.remembered() && path == selection.path())) return;
+    routes.put(sender, new Route(path, selection.conformance(), clock.instant(), 0));
+  }
+
+  /**
+   * Nach einem inkrementellen Export: die Prüfung dieses PDFs wird übernommen, die Annahme durch
+   * ZUGFeRDExporterFromPDFA behält ihr Datum und verfällt damit weiter nach {@code ttl}.
+   */
+  void extended(String sender, Selection selection) {
+    if (sender == null || selection.remembered() || selection.pdfASince() == null) return;
+    routes.put(sender, new Route(ExporterPath.PDFA, selection.conformance(), selection.pdfASince(), 0));
+  }
+}
@@ -0,0 +1,121 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.Timer;
+import org.mustangproject.ZUGFeRD.IZUGFeRDExporter;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Fertig vorbereiteter Factur-X-Export.
+ *
+ * {@link #writeTo(OutputStream)} lässt Mustang direkt in den Ziel-Stream schreiben (z.B. den
+ * Servlet-Response), ohne das Ergebnis-PDF vorher als byte[] zu puffern. Nach
+ * {@link #prerender(Path)} liegt das Ergebnis bereits in einer Datei und wird nur noch kopiert.
+ */
+public final class FacturxExport implements Closeable {
+
+  /** Schreibt das Ergebnis-PDF: Mustang-Exporter oder {@link IncrementalPdfAExport}. */
+  interface Writer extends Closeable {
+    void export(OutputStream out) throws IOException;
+  }
+
+  private final Writer exporter;
+  private final Closeable source;
+  private final BuildMetrics metrics;
+  private final ExportExecutor executor;
+  private Path rendered;
+
+  FacturxExport(IZUGFeRDExporter exporter, Closeable source, BuildMetrics metrics, ExportExecutor executor) {
+    this(writer(exporter), source, metrics, executor);
+  }
+
+  static Writer writer(IZUGFeRDExporter exporter) {
+    return new Writer() {
+      @Override
+      public void export(OutputStream out) throws IOException { exporter.export(out); }
+
+      @Override
+      public void close() throws IOException { exporter.close(); }
+    };
+  }
+
+  FacturxExport(Writer exporter, Closeable source, BuildMetrics metrics, ExportExecutor executor) {
+    this.exporter = exporter;
+    this.source = source;
+    this.metrics = metrics;
+    this.executor = executor;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    if (rendered != null) {
+      Files.copy(rendered, out);
+      return;
+    }
+    Timer.Sample sample = metrics.start();
+    CountingOutputStream counting = new CountingOutputStream(out);
+    executor.execute(() -> exporter.export(counting));
+    metrics.stop(sample, BuildMetrics.Stage.EXPORT);
+    metrics.exported(counting.count);
+  }
+
+  /**
+   * Führt den Export sofort in eine Temp-Datei unter {@code dir} aus, sodass Fehler des Exports
+   * auftreten, bevor etwas in die Antwort geschrieben ist. Die Datei wird beim Schließen gelöscht.
+   */
+  void prerender(Path dir) throws IOException {
+    Path file = Files.createTempFile(dir, "fx-out-", ".pdf");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      writeTo(out);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+    rendered = file;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      exporter.close();
+    } finally {
+      try {
+        if (source != null) {
+          source.close();
+        }
+      } finally {
+        if (rendered != null) {
+          Files.deleteIfExists(rendered);
+        }
+      }
+    }
+  }
+
+  /** Zählt die geschriebenen Bytes, ohne den Ziel-Stream zu schließen. */
+  private static final class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream(OutputStream out) { super(out); }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
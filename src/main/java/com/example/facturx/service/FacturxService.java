@@ -4,381 +4,606 @@ import com.example.facturx.model.InvoiceDTO;
 import com.example.facturx.model.InvoiceDTO.Line;
 import com.example.facturx.model.InvoiceDTO.PartyDTO;
 import com.example.facturx.model.InvoiceDTO.TotalsDTO;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.mustangproject.*;
 import org.mustangproject.ZUGFeRD.ZUGFeRDExporterFromPDFA;
 import org.mustangproject.ZUGFeRD.ZUGFeRDExporterFromA1;
 import org.mustangproject.ZUGFeRD.ZUGFeRDExporterFromA3;
 import org.mustangproject.ZUGFeRD.Profiles;
+import org.mustangproject.ZUGFeRD.ZUGFeRD2PullProvider;
+import io.micrometer.core.instrument.Timer;
 import org.mustangproject.ZUGFeRD.IZUGFeRDExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 @Service
 public class FacturxService {
 
+  private static final Logger log = LoggerFactory.getLogger(FacturxService.class);
   private static final DateTimeFormatter DATE = DateTimeFormatter.ISO_LOCAL_DATE;
+
+  /**
+   * Welcher Exporter für ein Quell-PDF gewählt wurde. INCREMENTAL ({@link IncrementalPdfAExport})
+   * und TEMPLATE (Basis aus dem {@link TemplateCache}) werden nur gemessen, nicht im
+   * {@link ExporterMemo} gespeichert.
+   */
+  enum ExporterPath { PDFA, A3, INCREMENTAL, TEMPLATE }
+
+  /**
+   * Rechenweg für die Positionen: {@code bigdecimal} (Standard), {@code fixed}
+   * (skalierte longs, {@link FixedPoint}) oder {@code shadow} (beide rechnen, Abweichungen werden
+   * geloggt und gezählt, verwendet wird BigDecimal).
+   */
+  enum TotalsEngine { BIGDECIMAL, FIXED, SHADOW }
   
   @Autowired
   private CountryMappingService countryMappingService;
 
+  @Autowired
+  private BuildMetrics metrics;
+
+  @Autowired
+  private ExportExecutor exportExecutor;
+
+  @Autowired
+  private PdfMemoryPolicy memoryPolicy;
+
+  @Autowired
+  private TemplateCache templateCache;
+
+  /** PDF/A-3-Quellen nur inkrementell ergänzen statt komplett neu schreiben. */
+  @Value("${facturx.export.incremental:false}")
+  private boolean incrementalExport;
+
+  /** PDFs bis zu dieser Größe werden im Speicher an Mustang übergeben, größere über eine Temp-Datei. */
+  @Value("${facturx.ingest.spill-threshold:16MB}")
+  private DataSize spillThreshold;
+
+  /** Zuletzt funktionierender Exporter je Absender, damit Wiederholer die XMP-Prüfung sparen. */
+  private final ExporterMemo exporterMemo;
+
+  private final TotalsEngine totalsEngine;
+
+  public FacturxService(@Value("${facturx.exporter.memo-size:10000}") int memoSize,
+                        @Value("${facturx.exporter.memo-ttl:1h}") Duration memoTtl,
+                        @Value("${facturx.exporter.memo-reverify-every:100}") int memoReverifyEvery,
+                        @Value("${facturx.totals.engine:bigdecimal}") String totalsEngine) {
+    this.exporterMemo = new ExporterMemo(memoSize, memoTtl, memoReverifyEvery, Clock.systemUTC());
+    this.totalsEngine = TotalsEngine.valueOf(totalsEngine.trim().toUpperCase(java.util.Locale.ROOT));
+  }
+
   public byte[] buildFacturX(InvoiceDTO dto, MultipartFile sourcePdf) {
-    File tmpPdf = null;
+    try (FacturxExport export = prepare(dto, sourcePdf)) {
+      return toBytes(export);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to build Factur-X PDF: " + e.getMessage(), e);
+    }
+  }
+
+  public byte[] buildFacturX(InvoiceDTO dto, PdfSource sourcePdf) {
+    try (FacturxExport export = prepare(dto, sourcePdf)) {
+      return toBytes(export);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to build Factur-X PDF: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Bereitet den Export vor (Mapping, Rundungsausgleich, Exporter laden), ohne das PDF zu schreiben.
+   * Das Ergebnis schreibt per {@link FacturxExport#writeTo} direkt in den Ziel-Stream und gibt beim
+   * Schließen auch das übernommene Eingangs-PDF wieder frei.
+   */
+  public FacturxExport prepare(InvoiceDTO dto, MultipartFile sourcePdf) {
+    // 1) Eingangs-PDF übernehmen (im Speicher oder oberhalb des Schwellwerts als Temp-Datei)
+    PdfSource src;
     try {
-      // 1) Eingangs-PDF temp. speichern
-      tmpPdf = File.createTempFile("fx-src-", ".pdf");
-      try (OutputStream os = Files.newOutputStream(tmpPdf.toPath())) {
-        os.write(sourcePdf.getBytes());
-      }
+      src = ingest(sourcePdf);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read source PDF: " + e.getMessage(), e);
+    }
+    try {
+      return prepare(dto, src, src);
+    } catch (RuntimeException e) {
+      closeQuietly(src);
+      throw e;
+    }
+  }
 
-      // 2) Mustang-Invoice aufbauen
-      Invoice inv = new Invoice();
+  /**
+   * Übernimmt das hochgeladene PDF: bis {@code facturx.ingest.spill-threshold} im Speicher, darüber
+   * als Temp-Datei. Der Aufrufer muss die Quelle schließen.
+   */
+  public PdfSource ingest(MultipartFile sourcePdf) throws IOException {
+    Timer.Sample sample = metrics.start();
+    PdfSource src = PdfSource.fromMultipart(sourcePdf, spillThreshold.toBytes());
+    metrics.ingested(sample, src);
+    return src;
+  }
 
-      // --- Header ---
-      String invNumber = dto.header != null ? dto.header.number : "INV-001";
-      LocalDate issue = parseDate(dto.header != null ? dto.header.issueDate : null);
-      if (issue == null) {
-        // Mustang 2.19 requires a non-null issue date; fallback to today if not provided
-        issue = LocalDate.now();
-      }
-      inv.setNumber(invNumber)
-         .setIssueDate(java.sql.Date.valueOf(issue))
-         .setCurrency(dto.header != null && dto.header.currency != null ? dto.header.currency : "EUR");
-      
-      // Set delivery date to service_from if available, otherwise use issue date
-      LocalDate deliveryDate = issue;
-      if (dto.header != null && notBlank(dto.header.serviceFrom)) {
-        LocalDate serviceFrom = parseDate(dto.header.serviceFrom);
-        if (serviceFrom != null) {
-          deliveryDate = serviceFrom;
-          System.out.println("Using service_from as delivery date: " + serviceFrom);
-        }
-      } else {
-        System.out.println("No service_from found, using issue date as delivery date: " + issue);
-      }
-      inv.setDeliveryDate(java.sql.Date.valueOf(deliveryDate));
-      
-      // Document type will be set later when we have the exporter
-
-      // Leistungszeitraum - only set if both dates are valid
-      if (dto.header != null && notBlank(dto.header.serviceFrom) && notBlank(dto.header.serviceTo)) {
-        LocalDate from = parseDate(dto.header.serviceFrom);
-        LocalDate to   = parseDate(dto.header.serviceTo);
-        if (from != null && to != null) {
-          inv.setDetailedDeliveryPeriod(
-              java.sql.Date.valueOf(from),
-              java.sql.Date.valueOf(to)
-          );
+  /**
+   * Wie {@link #ingest}, aber immer als Temp-Datei, unabhängig von der Größe. Für PDFs, die lange
+   * auf ihre Verarbeitung warten (Job-Warteschlange) und dabei keinen Heap belegen sollen.
+   */
+  public PdfSource ingestToDisk(MultipartFile sourcePdf) throws IOException {
+    Timer.Sample sample = metrics.start();
+    PdfSource src = PdfSource.fromMultipart(sourcePdf, -1);
+    metrics.ingested(sample, src);
+    return src;
+  }
+
+  /** Wie {@link #prepare(InvoiceDTO, MultipartFile)}; das Eingangs-PDF bleibt im Besitz des Aufrufers. */
+  public FacturxExport prepare(InvoiceDTO dto, PdfSource sourcePdf) {
+    return prepare(dto, sourcePdf, null);
+  }
+
+  private FacturxExport prepare(InvoiceDTO dto, PdfSource sourcePdf, Closeable owned) {
+    metrics.received(sourcePdf.size());
+    memoryPolicy.checkBudget(sourcePdf);
+
+    // 2) Mustang-Invoice aufbauen
+    Invoice inv = mapInvoice(dto);
+
+    IZUGFeRDExporter exporter = null;
+    try {
+      // 3a) Wiederverwendete Vorlage: gespeicherte PDF/A-3-Basis, nur noch die XML einbetten
+      String templateKey = templateCache.accepts(sourcePdf) ? sourcePdf.sha256() : null;
+      if (templateKey != null) {
+        FacturxExport fromTemplate = templateExport(templateKey, inv, senderKey(dto.seller), owned);
+        if (fromTemplate != null) {
+          return fromTemplate;
         }
       }
 
-      // Fälligkeit + Text
-      if (dto.header != null && notBlank(dto.header.dueDate)) {
-        LocalDate due = parseDate(dto.header.dueDate);
-        if (due != null) {
-          inv.setDueDate(java.sql.Date.valueOf(due));
-          inv.setPaymentTermDescription("Please remit until " + formatDE(due));
+      // 3b) Exporter-Wahl für beide Pfade: gemerkter Weg des Absenders, sonst eine XMP-Prüfung
+      String senderKey = senderKey(dto.seller);
+      ExporterMemo.Selection selection = exporterMemo.select(senderKey, () -> PdfAConformanceProbe.probe(sourcePdf));
+      metrics.exporterDecision(selection.remembered() ? "memo" : "probe");
+
+      // 3c) Bereits PDF/A-3: nur XML, /AF und XMP anhängen (facturx.export.incremental)
+      if (incrementalExport) {
+        FacturxExport incremental = incrementalExport(sourcePdf, selection, inv, senderKey, owned);
+        if (incremental != null) {
+          return incremental;
         }
       }
 
-      // --- Parteien ---
-      TradeParty seller = mapParty(dto.seller, true);
-      TradeParty buyer  = mapParty(dto.buyer,  false);
-      inv.setSender(seller);
-      inv.setRecipient(buyer);
-      
-      // Validate required parties
-      if (seller == null) {
-        throw new IllegalArgumentException("Seller information is required");
-      }
-      if (buyer == null) {
-        throw new IllegalArgumentException("Buyer information is required");
-      }
+      // 3) Exporter: PDF/A-Eingänge über ZUGFeRDExporterFromPDFA, alle anderen direkt über ZUGFeRDExporterFromA3
+      // CRITICAL: Use ZUGFeRDExporterFromA3 (not DXExporterFromA3) for proper invoice generation
+      exporter = loadExporter(sourcePdf, selection, senderKey);
 
-      // BuyerReference (Käuferreferenz)
-      if (dto.buyer != null && notBlank(dto.buyer.buyerReference)) {
-        inv.setReferenceNumber(dto.buyer.buyerReference);
+      // Set the invoice transaction directly - ZUGFeRDExporterFromA3 will generate proper invoice XML
+      exporter.setTransaction(inv);
+      FacturxExport.Writer writer = FacturxExport.writer(exporter);
+      if (templateKey != null) {
+        writer = templateCache.recording(templateKey, writer);
       }
+      FacturxExport export = new FacturxExport(writer, owned, metrics, exportExecutor);
+      boolean mixed = exporter instanceof PdfAResources.A3Exporter;
+      exporter = null;
+      return mixed ? withinBudget(export, sourcePdf) : export;
 
-      // Verwendungszweck/Payment Reference
-      if (dto.payment != null && notBlank(dto.payment.remittanceInformation)) {
-        inv.setPaymentReference(dto.payment.remittanceInformation);
-      }
+    } catch (IOException e) {
+      closeQuietly(exporter);
+      throw new RuntimeException("Failed to build Factur-X PDF: " + e.getMessage(), e);
+    }
+  }
 
-      // Payment Means Logic with proper TypeCode setting via BankDetails
-      boolean isPaid = dto.payment != null && "paid".equals(dto.payment.paymentStatus);
-      
-      // Ensure seller has a BankDetails entry; create if missing
-      List<BankDetails> banks = seller.getBankDetails();
-      BankDetails bank;
-      if (banks == null || banks.isEmpty()) {
-        bank = new BankDetails();
-        // Set IBAN/BIC from seller if present
-        if (notBlank(dto.seller.iban)) bank.setIBAN(dto.seller.iban);
-        if (notBlank(dto.seller.bic))  bank.setBIC(dto.seller.bic);
-        seller.addBankDetails(bank);
-      } else {
-        bank = banks.get(0);
+  /**
+   * Der A3-Exporter lädt ausgelagerte Quellen im Mixed-Modus, dessen Budget erst beim Export
+   * überläuft. Für große Quellen wird der Export deshalb schon hier ausgeführt (siehe
+   * {@link PdfMemoryPolicy#prerender}). Der inkrementelle Export hängt nur neue Objekte an und der
+   * PDF/A-Exporter nutzt keine Scratch-Datei; beide streamen immer direkt.
+   */
+  private FacturxExport withinBudget(FacturxExport export, PdfSource src) throws IOException {
+    try {
+      memoryPolicy.prerender(export, src);
+      return export;
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(export);
+      throw e;
+    }
+  }
+
+  /**
+   * Nur die EN16931-CII-XML (z.B. für XRechnung-Portale): Mapping und Rundungsausgleich wie bei
+   * {@link #prepare}, aber ohne Quell-PDF, PDFBox und Exporter.
+   */
+  public byte[] buildXml(InvoiceDTO dto) {
+    Invoice inv = mapInvoice(dto);
+
+    Timer.Sample sample = metrics.start();
+    ZUGFeRD2PullProvider provider = new ZUGFeRD2PullProvider();
+    provider.setProfile(Profiles.getByName("EN16931"));
+    provider.generateXML(inv);
+    byte[] xml = provider.getXML();
+    metrics.stop(sample, BuildMetrics.Stage.XML);
+    metrics.exported(xml.length);
+    return xml;
+  }
+
+  /** Bildet das DTO auf eine Mustang-Invoice ab, inklusive Rundungsausgleich. */
+  public Invoice mapInvoice(InvoiceDTO dto) {
+    Timer.Sample mappingSample = metrics.start();
+    Invoice inv = new Invoice();
+
+    // --- Header ---
+    String invNumber = dto.header != null ? dto.header.number : "INV-001";
+    LocalDate issue = parseDate(dto.header != null ? dto.header.issueDate : null);
+    if (issue == null) {
+      // Mustang 2.19 requires a non-null issue date; fallback to today if not provided
+      issue = LocalDate.now();
+    }
+    inv.setNumber(invNumber)
+       .setIssueDate(java.sql.Date.valueOf(issue))
+       .setCurrency(dto.header != null && dto.header.currency != null ? dto.header.currency : "EUR");
+    
+    // Set delivery date to service_from if available, otherwise use issue date
+    LocalDate deliveryDate = issue;
+    if (dto.header != null && notBlank(dto.header.serviceFrom)) {
+      LocalDate serviceFrom = parseDate(dto.header.serviceFrom);
+      if (serviceFrom != null) {
+        deliveryDate = serviceFrom;
+        log.debug("Using service_from as delivery date: {}", serviceFrom);
       }
-      
-      // Set payment means code + information
-      if (isPaid) {
-        bank.setPaymentMeansCode("ZZZ");                      // Sonstige
-        bank.setPaymentMeansInformation("Bereits bezahlt");   // free text
-        inv.setPaymentTermDescription("Bereits bezahlt");
-        System.out.println("DEBUG: Payment status: paid - setting TypeCode ZZZ (already paid)");
-      } else {
-        bank.setPaymentMeansCode("58");                       // SEPA Credit Transfer
-        bank.setPaymentMeansInformation("SEPA Credit Transfer");
-        // Make sure IBAN/BIC are present for unpaid case
-        if (dto.payment != null) {
-          if (notBlank(dto.payment.iban)) bank.setIBAN(dto.payment.iban);
-          if (notBlank(dto.payment.bic))  bank.setBIC(dto.payment.bic);
-        }
-        System.out.println("DEBUG: Payment status: " + (dto.payment != null ? dto.payment.paymentStatus : "null") + " - setting TypeCode 58 (SEPA Credit Transfer)");
+    } else {
+      log.debug("No service_from found, using issue date as delivery date: {}", issue);
+    }
+    inv.setDeliveryDate(java.sql.Date.valueOf(deliveryDate));
+    
+    // Document type will be set later when we have the exporter
+
+    // Leistungszeitraum - only set if both dates are valid
+    if (dto.header != null && notBlank(dto.header.serviceFrom) && notBlank(dto.header.serviceTo)) {
+      LocalDate from = parseDate(dto.header.serviceFrom);
+      LocalDate to   = parseDate(dto.header.serviceTo);
+      if (from != null && to != null) {
+        inv.setDetailedDeliveryPeriod(
+            java.sql.Date.valueOf(from),
+            java.sql.Date.valueOf(to)
+        );
       }
+    }
 
-      // --- Positionen vorbereiten (Skalierung auf gewünschtes Grand Total) ---
-      if (dto.lines == null || dto.lines.isEmpty()) {
-        throw new IllegalArgumentException("At least one line is required");
+    // Fälligkeit + Text
+    if (dto.header != null && notBlank(dto.header.dueDate)) {
+      LocalDate due = parseDate(dto.header.dueDate);
+      if (due != null) {
+        inv.setDueDate(java.sql.Date.valueOf(due));
+        inv.setPaymentTermDescription("Please remit until " + formatDE(due));
       }
+    }
 
+    // --- Parteien ---
+    TradeParty seller = mapParty(dto.seller, true);
+    TradeParty buyer  = mapParty(dto.buyer,  false);
+    inv.setSender(seller);
+    inv.setRecipient(buyer);
+    
+    // Validate required parties
+    if (seller == null) {
+      throw new IllegalArgumentException("Seller information is required");
+    }
+    if (buyer == null) {
+      throw new IllegalArgumentException("Buyer information is required");
+    }
 
-      List<Prep> preps = new ArrayList<>();
-      BigDecimal grossSumCalc = BigDecimal.ZERO;
+    // BuyerReference (Käuferreferenz)
+    if (dto.buyer != null && notBlank(dto.buyer.buyerReference)) {
+      inv.setReferenceNumber(dto.buyer.buyerReference);
+    }
 
-      for (Line l : dto.lines) {
-        if (!notBlank(l.description)) throw new IllegalArgumentException("Line: description required");
-        if (!notBlank(l.quantity))    throw new IllegalArgumentException("Line: quantity required");
+    // Verwendungszweck/Payment Reference
+    if (dto.payment != null && notBlank(dto.payment.remittanceInformation)) {
+      inv.setPaymentReference(dto.payment.remittanceInformation);
+    }
 
-        BigDecimal qty     = bd4(l.quantity);
-        BigDecimal vatPct  = bd2(defaultIfBlank(l.taxRate, "0"));
-        BigDecimal unitNet = l.unitNetPriceBD();
+    // Payment Means Logic with proper TypeCode setting via BankDetails
+    boolean isPaid = dto.payment != null && "paid".equals(dto.payment.paymentStatus);
+    
+    // Ensure seller has a BankDetails entry; create if missing
+    List<BankDetails> banks = seller.getBankDetails();
+    BankDetails bank;
+    if (banks == null || banks.isEmpty()) {
+      bank = new BankDetails();
+      // Set IBAN/BIC from seller if present
+      if (notBlank(dto.seller.iban)) bank.setIBAN(dto.seller.iban);
+      if (notBlank(dto.seller.bic))  bank.setBIC(dto.seller.bic);
+      seller.addBankDetails(bank);
+    } else {
+      bank = banks.get(0);
+    }
+    
+    // Set payment means code + information
+    if (isPaid) {
+      bank.setPaymentMeansCode("ZZZ");                      // Sonstige
+      bank.setPaymentMeansInformation("Bereits bezahlt");   // free text
+      inv.setPaymentTermDescription("Bereits bezahlt");
+      log.debug("Payment status: paid - setting TypeCode ZZZ (already paid)");
+    } else {
+      bank.setPaymentMeansCode("58");                       // SEPA Credit Transfer
+      bank.setPaymentMeansInformation("SEPA Credit Transfer");
+      // Make sure IBAN/BIC are present for unpaid case
+      if (dto.payment != null) {
+        if (notBlank(dto.payment.iban)) bank.setIBAN(dto.payment.iban);
+        if (notBlank(dto.payment.bic))  bank.setBIC(dto.payment.bic);
+      }
+      log.debug("Payment status: {} - setting TypeCode 58 (SEPA Credit Transfer)", dto.payment != null ? dto.payment.paymentStatus : null);
+    }
 
-        // Handle negative prices as credits (still add to preps for rounding calculation)
-        if (unitNet.compareTo(BigDecimal.ZERO) < 0) {
-          System.out.println("Skipping negative price line: " + l.description + " (" + unitNet + ")");
-          // Don't skip - add to preps for rounding calculation, but skip from line items
-        }
+    // --- Positionen vorbereiten (Skalierung auf gewünschtes Grand Total) ---
+    if (dto.lines == null || dto.lines.isEmpty()) {
+      throw new IllegalArgumentException("At least one line is required");
+    }
 
-        // Brutto zur Skalierung (2 Dezimalstellen)
-        BigDecimal unitGross = unitNet.multiply(BigDecimal.ONE.add(vatPct.movePointLeft(2))).setScale(2, RoundingMode.HALF_UP);
-        BigDecimal lineGross = unitGross.multiply(qty).setScale(2, RoundingMode.HALF_UP);
-
-        // Positionsrabatt (netto) berücksichtigen
-        if (notBlank(l.discount)) {
-          BigDecimal discNet = bd2(l.discount);
-          if (discNet.compareTo(BigDecimal.ZERO) > 0) {
-            BigDecimal lineNet = unitNet.multiply(qty).subtract(discNet).setScale(2, RoundingMode.HALF_UP);
-            if (lineNet.compareTo(BigDecimal.ZERO) < 0) lineNet = BigDecimal.ZERO;
-            unitNet = lineNet.divide(qty, 2, RoundingMode.HALF_UP);
-            unitGross = unitNet.multiply(BigDecimal.ONE.add(vatPct.movePointLeft(2))).setScale(2, RoundingMode.HALF_UP);
-            lineGross = unitGross.multiply(qty).setScale(2, RoundingMode.HALF_UP);
-          }
-        }
 
-        grossSumCalc = grossSumCalc.add(lineGross);
+    // Jede Position einmal parsen und durchrechnen; Items und Rundungsausgleich nutzen das Ergebnis
+    List<LineCalc> calcs = new ArrayList<>(dto.lines.size());
+    for (Line l : dto.lines) {
+      calcs.add(computeLine(l, totalsEngine, metrics));
+    }
 
-        Prep p = new Prep();
-        p.src = l; p.qty = qty; p.vatPct = vatPct; p.unitNetOrig = unitNet;
-        preps.add(p);
+    // --- Items hinzufügen (korrigierte Einzelpreise für korrekte Positionssummen) ---
+    for (LineCalc c : calcs) {
+      // Skip negative prices from item creation (they will be handled as credit items)
+      if (c.itemSkipped()) {
+        continue;
       }
 
-      // --- Items hinzufügen (korrigiere Einzelpreise für korrekte Positionssummen) ---
-      for (Prep p : preps) {
-        // Skip negative prices from item creation (they will be handled as credit items)
-        if (p.unitNetOrig.compareTo(BigDecimal.ZERO) < 0) {
-          continue;
-        }
-        
-        String unit = notBlank(p.src.unitCode) ? p.src.unitCode : "C62";
-        
-        // Berechne die gewünschte Positionssumme (wie in der Rundungsberechnung)
-        BigDecimal originalUnitNet = p.src.unitNetPriceBD();
-        BigDecimal lineNet = originalUnitNet.multiply(p.qty).setScale(2, RoundingMode.HALF_UP);
-        
-        // Positionsrabatt berücksichtigen
-        if (notBlank(p.src.discount)) {
-          BigDecimal discNet = bd2(p.src.discount);
-          if (discNet.compareTo(BigDecimal.ZERO) > 0) {
-            lineNet = lineNet.subtract(discNet).setScale(2, RoundingMode.HALF_UP);
-            if (lineNet.compareTo(BigDecimal.ZERO) < 0) lineNet = BigDecimal.ZERO;
-          }
-        }
-        
-        // Berechne Einzelpreis so, dass Mustang Library auf die gewünschte Brutto-Positionssumme kommt
-        // Mustang Library berechnet: (Einzelpreis × Menge) × (1 + MwSt)
-        // Wir wollen: Brutto-Positionssumme = Netto-Positionssumme × (1 + MwSt)
-        // Also: Einzelpreis = Brutto-Positionssumme / (Menge × (1 + MwSt))
-        BigDecimal targetGrossLine = lineNet.multiply(BigDecimal.ONE.add(p.vatPct.movePointLeft(2))).setScale(2, RoundingMode.HALF_UP);
-        BigDecimal adjustedUnitNet = targetGrossLine.divide(p.qty.multiply(BigDecimal.ONE.add(p.vatPct.movePointLeft(2))), 2, RoundingMode.HALF_UP);
-        
-        // Speichere den angepassten Einzelpreis in der Prep-Instanz
-        p.unitNetAdjusted = adjustedUnitNet;
-        
-        System.out.println("DEBUG: Line " + p.src.description + 
-                          " - Original unit net: " + originalUnitNet + 
-                          ", Target line net: " + lineNet + 
-                          ", Adjusted unit net: " + adjustedUnitNet);
-
-        Product prod = new Product();
-        prod.setName(p.src.description)
-            .setUnit(unit)
-            .setVATPercent(p.vatPct);
-        if (notBlank(p.src.taxCategory)) {
-          prod.setTaxCategoryCode(p.src.taxCategory);
-        }
+      log.debug("Line {} - Original unit net: {}, Target line net: {}, Adjusted unit net: {}",
+          c.src().description, c.unitNet(), c.lineNet(), c.adjustedUnitNet());
 
-        Item item = new Item(prod, adjustedUnitNet, p.qty);
+      Product prod = new Product();
+      prod.setName(c.src().description)
+          .setUnit(c.unit())
+          .setVATPercent(c.vatPct());
+      if (notBlank(c.src().taxCategory)) {
+        prod.setTaxCategoryCode(c.src().taxCategory);
+      }
 
-        // Positions-Rabatt (netto)
-        if (notBlank(p.src.discount)) {
-          BigDecimal disc = bd2(p.src.discount);
-          if (disc.compareTo(BigDecimal.ZERO) > 0) {
-            ArrayList<Allowance> als = new ArrayList<>();
-            als.add(new Allowance(disc));
-            item.setItemAllowances(als);
-          }
-        }
+      Item item = new Item(prod, c.adjustedUnitNet(), c.qty());
 
-        inv.addItem(item);
+      // Positions-Rabatt (netto)
+      if (c.discount() != null) {
+        ArrayList<Allowance> als = new ArrayList<>();
+        als.add(new Allowance(c.discount()));
+        item.setItemAllowances(als);
       }
-      
-      // Add invoice-level discount if provided
-      if (dto.totals != null && notBlank(dto.totals.discountGross)) {
-        BigDecimal invoiceDiscount = bd2(dto.totals.discountGross);
-        if (invoiceDiscount.compareTo(BigDecimal.ZERO) > 0) {
-          // Add as a separate line item with negative amount
-          Product discountProd = new Product();
-          discountProd.setName("Discount")
-                      .setUnit("C62")
-                      .setVATPercent(BigDecimal.ZERO);
-          
-          Item discountItem = new Item(discountProd, invoiceDiscount.negate(), BigDecimal.ONE);
-          inv.addItem(discountItem);
-          System.out.println("Adding invoice discount: " + invoiceDiscount);
-        }
+
+      inv.addItem(item);
+    }
+    
+    // Add invoice-level discount if provided
+    if (dto.totals != null && notBlank(dto.totals.discountGross)) {
+      BigDecimal invoiceDiscount = bd2(dto.totals.discountGross);
+      if (invoiceDiscount.compareTo(BigDecimal.ZERO) > 0) {
+        // Add as a separate line item with negative amount
+        Product discountProd = new Product();
+        discountProd.setName("Discount")
+                    .setUnit("C62")
+                    .setVATPercent(BigDecimal.ZERO);
+        
+        Item discountItem = new Item(discountProd, invoiceDiscount.negate(), BigDecimal.ONE);
+        inv.addItem(discountItem);
+        log.debug("Adding invoice discount: {}", invoiceDiscount);
       }
-      
-      // Add negative price lines as separate line items with negative amounts
-      for (Line l : dto.lines) {
-        if (notBlank(l.description) && notBlank(l.quantity)) {
-          BigDecimal qty = bd4(l.quantity);
-          BigDecimal unitNet = l.unitNetPriceBD();
-          
-          if (unitNet.compareTo(BigDecimal.ZERO) < 0) {
-            // Add as a separate line item with negative amount
-            String unit = notBlank(l.unitCode) ? l.unitCode : "C62";
-            BigDecimal vatPct = bd2(defaultIfBlank(l.taxRate, "0"));
-            
-            Product creditProd = new Product();
-            creditProd.setName(l.description + " (Credit)")
-                      .setUnit(unit)
-                      .setVATPercent(vatPct);
-            if (notBlank(l.taxCategory)) {
-              creditProd.setTaxCategoryCode(l.taxCategory);
-            }
-            
-            Item creditItem = new Item(creditProd, unitNet.abs().negate(), qty);
-            inv.addItem(creditItem);
-            System.out.println("Adding credit line item: " + l.description + " = " + unitNet.abs().multiply(qty));
-          }
+    }
+    
+    // Add negative price lines as separate line items with negative amounts
+    for (LineCalc c : calcs) {
+      if (c.credit()) {
+        Product creditProd = new Product();
+        creditProd.setName(c.src().description + " (Credit)")
+                  .setUnit(c.unit())
+                  .setVATPercent(c.vatPct());
+        if (notBlank(c.src().taxCategory)) {
+          creditProd.setTaxCategoryCode(c.src().taxCategory);
         }
+
+        Item creditItem = new Item(creditProd, c.unitNet().abs().negate(), c.qty());
+        inv.addItem(creditItem);
+        log.debug("Adding credit line item: {} = {}", c.src().description, c.unitNet().abs().multiply(c.qty()));
       }
-      
-      // --- Rundungsausgleich je MwSt-Kategorie ---
-      applyRoundingAdjustment(inv, dto.lines, dto.totals, preps);
-      
-      // 3) Exporter: Try ZUGFeRDExporterFromPDFA first, fallback to ZUGFeRDExporterFromA3 for invoices
-      // CRITICAL: Use ZUGFeRDExporterFromA3 (not DXExporterFromA3) for proper invoice generation
-      IZUGFeRDExporter exporter;
+    }
+    
+    // --- Rundungsausgleich je MwSt-Kategorie ---
+    Timer.Sample roundingSample = metrics.start();
+    applyRoundingAdjustment(inv, dto.totals, calcs);
+    metrics.stop(roundingSample, BuildMetrics.Stage.ROUNDING);
+
+    // Debug: Check invoice dates before setting transaction
+    if (log.isDebugEnabled()) {
+      log.debug("Invoice {} ({}): issue date {}, due date {}, delivery date {}, sender {}, recipient {}",
+          inv.getNumber(), inv.getCurrency(), inv.getIssueDate(), inv.getDueDate(), inv.getDeliveryDate(),
+          inv.getSender() != null ? inv.getSender().getName() : null,
+          inv.getRecipient() != null ? inv.getRecipient().getName() : null);
+    }
+    
+    // CRITICAL: Ensure all required dates are set - Mustang library is very strict about this
+    if (inv.getIssueDate() == null) {
+      log.debug("Issue date is null, setting to today");
+      inv.setIssueDate(java.sql.Date.valueOf(LocalDate.now()));
+    }
+    if (inv.getDeliveryDate() == null) {
+      log.debug("Delivery date is null, setting to issue date");
+      inv.setDeliveryDate(inv.getIssueDate());
+    }
+    if (inv.getDueDate() == null) {
+      log.debug("Due date is null, setting to issue date + 14 days");
+      LocalDate dueDate = LocalDate.now().plusDays(14);
+      inv.setDueDate(java.sql.Date.valueOf(dueDate));
+    }
+    
+    // Ensure we have a valid invoice number
+    if (inv.getNumber() == null || inv.getNumber().trim().isEmpty()) {
+      log.warn("Invoice number is null or empty, setting default");
+      inv.setNumber("INV-" + System.currentTimeMillis());
+    }
+    
+    // Ensure we have a valid currency
+    if (inv.getCurrency() == null || inv.getCurrency().trim().isEmpty()) {
+      log.debug("Currency is null or empty, setting to EUR");
+      inv.setCurrency("EUR");
+    }
+
+    metrics.stop(mappingSample, BuildMetrics.Stage.MAPPING);
+    return inv;
+  }
+
+  /* ===== Helpers ===== */
+
+  private static byte[] toBytes(FacturxExport export) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    export.writeTo(bos);
+    return bos.toByteArray();
+  }
+
+  private static void closeQuietly(Closeable c) {
+    if (c == null) return;
+    try { c.close(); } catch (IOException ignored) {}
+  }
+
+  /**
+   * Lädt das Quell-PDF mit dem vorab gewählten Exporter (gemerkter Weg des Absenders oder
+   * XMP-Prüfung). Nur wenn ZUGFeRDExporterFromPDFA das PDF trotzdem ablehnt, wird ein zweites Mal
+   * geladen; der tatsächlich verwendete Exporter wird für den Absender gemerkt.
+   */
+  private IZUGFeRDExporter loadExporter(PdfSource src, ExporterMemo.Selection selection, String senderKey)
+      throws IOException {
+    Timer.Sample sample = metrics.start();
+    boolean fallback = false;
+    ExporterPath path = selection.path();
+    log.debug("PDF/A probe: {} -> {} ({})", selection.conformance(), path, selection.remembered() ? "memo" : "probe");
+
+    IZUGFeRDExporter exporter = null;
+    if (path == ExporterPath.PDFA) {
+      memoryPolicy.checkHeapLoad(src);
       try {
-        System.out.println("Attempting to use ZUGFeRDExporterFromPDFA for invoice generation...");
-        exporter = new ZUGFeRDExporterFromPDFA()
-            .load(tmpPdf.getAbsolutePath())
+        log.debug("Attempting to use ZUGFeRDExporterFromPDFA for invoice generation...");
+        exporter = loadPdfA(src)
             .setZUGFeRDVersion(2)
             .setProfile(Profiles.getByName("EN16931"))
             .setProducer("FacturX-Converter")
             .setCreator("Mustangproject");
-        System.out.println("Successfully loaded PDF with ZUGFeRDExporterFromPDFA");
+        log.debug("Successfully loaded PDF with ZUGFeRDExporterFromPDFA");
       } catch (IllegalArgumentException | IOException e) {
-        System.out.println("ZUGFeRDExporterFromPDFA failed, falling back to ZUGFeRDExporterFromA3 for invoice generation...");
-        exporter = new ZUGFeRDExporterFromA3()
-            .load(tmpPdf.getAbsolutePath())
-            .setZUGFeRDVersion(2)
-            .setProfile(Profiles.getByName("EN16931"))
-            .setProducer("FacturX-Converter")
-            .setCreator("Mustangproject");
-        System.out.println("Successfully loaded PDF with ZUGFeRDExporterFromA3 (will convert to PDF/A-3 and generate invoice)");
+        log.debug("ZUGFeRDExporterFromPDFA failed ({}), falling back to ZUGFeRDExporterFromA3", e.getMessage());
+        path = ExporterPath.A3;
+        fallback = true;
       }
+    }
+    if (exporter == null) {
+      exporter = loadA3(src)
+          .setZUGFeRDVersion(2)
+          .setProfile(Profiles.getByName("EN16931"))
+          .setProducer("FacturX-Converter")
+          .setCreator("Mustangproject");
+      log.debug("Successfully loaded PDF with ZUGFeRDExporterFromA3 (will convert to PDF/A-3 and generate invoice)");
+    }
 
-      // Debug: Check invoice dates before setting transaction
-      System.out.println("Invoice issue date: " + inv.getIssueDate());
-      System.out.println("Invoice due date: " + inv.getDueDate());
-      System.out.println("Invoice delivery date: " + inv.getDeliveryDate());
-      System.out.println("Invoice number: " + inv.getNumber());
-      System.out.println("Invoice currency: " + inv.getCurrency());
-      System.out.println("Invoice sender: " + (inv.getSender() != null ? inv.getSender().getName() : "null"));
-      System.out.println("Invoice recipient: " + (inv.getRecipient() != null ? inv.getRecipient().getName() : "null"));
-      System.out.println("Invoice items count: " + "checking items...");
-      
-      // CRITICAL: Ensure all required dates are set - Mustang library is very strict about this
-      if (inv.getIssueDate() == null) {
-        System.out.println("WARNING: Issue date is null, setting to today");
-        inv.setIssueDate(java.sql.Date.valueOf(LocalDate.now()));
-      }
-      if (inv.getDeliveryDate() == null) {
-        System.out.println("WARNING: Delivery date is null, setting to issue date");
-        inv.setDeliveryDate(inv.getIssueDate());
-      }
-      if (inv.getDueDate() == null) {
-        System.out.println("WARNING: Due date is null, setting to issue date + 14 days");
-        LocalDate dueDate = LocalDate.now().plusDays(14);
-        inv.setDueDate(java.sql.Date.valueOf(dueDate));
-      }
-      
-      // Ensure we have a valid invoice number
-      if (inv.getNumber() == null || inv.getNumber().trim().isEmpty()) {
-        System.out.println("WARNING: Invoice number is null or empty, setting default");
-        inv.setNumber("INV-" + System.currentTimeMillis());
-      }
-      
-      // Ensure we have a valid currency
-      if (inv.getCurrency() == null || inv.getCurrency().trim().isEmpty()) {
-        System.out.println("WARNING: Currency is null or empty, setting to EUR");
-        inv.setCurrency("EUR");
-      }
-      
-      // Set the invoice transaction directly - ZUGFeRDExporterFromA3 will generate proper invoice XML
-      exporter.setTransaction(inv);
+    exporterMemo.loaded(senderKey, selection, path);
+    metrics.exporterLoaded(sample, path, fallback, senderKey);
+    return exporter;
+  }
 
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      exporter.export(bos);
-      exporter.close();
+  /**
+   * Inkrementeller Export für Quell-PDFs, die sich per XMP als PDF/A-3 ausweisen und deren
+   * Absender schon ein PDF durch ZUGFeRDExporterFromPDFA gebracht hat ({@link ExporterMemo}). Das
+   * erste PDF eines Absenders geht daher den regulären Weg; das einzelne PDF selbst wird nur per
+   * XMP-Kennung geprüft, nicht von Mustang validiert.
+   *
+   * @return {@code null}, wenn der reguläre Mustang-Export nötig ist
+   */
+  private FacturxExport incrementalExport(PdfSource src, ExporterMemo.Selection selection,
+                                          Invoice inv, String senderKey, Closeable owned) throws IOException {
+    PdfAConformanceProbe.Conformance conformance = selection.conformance();
+    if (conformance == null || conformance.part() != 3 || selection.pdfASince() == null) return null;
+    Timer.Sample sample = metrics.start();
 
-      return bos.toByteArray();
+    PDDocument doc = src.inMemory() ? Loader.loadPDF(src.bytes()) : memoryPolicy.loadMixed(src.path());
+    IncrementalPdfAExport export;
+    try {
+      // Aus dem Memo gewählt: die Kennung dieses PDFs am geladenen XMP nachprüfen
+      PdfAConformanceProbe.Conformance loaded = selection.remembered() ? PdfAConformanceProbe.probe(doc) : conformance;
+      export = loaded != null && loaded.part() == 3 ? IncrementalPdfAExport.of(doc, inv) : null;
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(doc);
+      throw e;
+    }
+    if (export == null) {
+      log.debug("PDF/A-3 source cannot be extended incrementally, using the regular export");
+      closeQuietly(doc);
+      return null;
+    }
+    exporterMemo.extended(senderKey, selection);
+    metrics.exporterLoaded(sample, ExporterPath.INCREMENTAL, false, senderKey);
+    return new FacturxExport(export, owned, metrics, exportExecutor);
+  }
 
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to build Factur-X PDF: " + e.getMessage(), e);
-    } finally {
-      if (tmpPdf != null) {
-        try { Files.deleteIfExists(tmpPdf.toPath()); } catch (IOException ignored) {}
-      }
+  /**
+   * Export auf der gespeicherten Basis eines wiederverwendeten Quell-PDFs.
+   *
+   * @return {@code null} bei Cache-Miss
+   */
+  private FacturxExport templateExport(String key, Invoice inv, String senderKey, Closeable owned)
+      throws IOException {
+    byte[] base = templateCache.get(key);
+    if (base == null) return null;
+    Timer.Sample sample = metrics.start();
+    PDDocument doc = Loader.loadPDF(base);
+    IncrementalPdfAExport export;
+    try {
+      export = IncrementalPdfAExport.of(doc, inv);
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(doc);
+      throw e;
+    }
+    if (export == null) {
+      closeQuietly(doc);
+      return null;
     }
+    metrics.exporterDecision("template");
+    metrics.exporterLoaded(sample, ExporterPath.TEMPLATE, false, senderKey);
+    return new FacturxExport(export, owned, metrics, exportExecutor);
   }
 
-  /* ===== Helpers ===== */
+  /** Absender-Schlüssel für Metriken und {@link ExporterMemo}: USt-IdNr., ersatzweise der Name. */
+  private static String senderKey(PartyDTO seller) {
+    if (seller == null) return null;
+    if (notBlank(seller.vatId)) return seller.vatId.trim();
+    return notBlank(seller.name) ? seller.name.trim() : null;
+  }
+
+  /** Lädt das Quell-PDF ohne Umweg über die Platte, sofern es im Speicher liegt. */
+  private static ZUGFeRDExporterFromPDFA loadPdfA(PdfSource src) throws IOException {
+    ZUGFeRDExporterFromPDFA exporter = new ZUGFeRDExporterFromPDFA();
+    return src.inMemory() ? exporter.load(src.bytes()) : exporter.load(src.path().toString());
+  }
+
+  /** A3-Exporter, der ausgelagerte PDFs im Mixed-Modus der {@link PdfMemoryPolicy} lädt. */
+  private ZUGFeRDExporterFromA3 loadA3(PdfSource src) throws IOException {
+    ZUGFeRDExporterFromA3 exporter = new PdfAResources.A3Exporter(memoryPolicy);
+    return src.inMemory() ? exporter.load(src.bytes()) : exporter.load(src.path().toString());
+  }
 
   private static boolean notBlank(String s) { return s != null && !s.trim().isEmpty(); }
   private static String defaultIfBlank(String s, String def) { return notBlank(s) ? s : def; }
@@ -405,7 +630,7 @@ public class FacturxService {
     if (notBlank(p.country)) {
       String countryCode = countryMappingService.getCountryCode(p.country);
       tp.setCountry(countryCode);
-      System.out.println("DEBUG: Country mapping: '" + p.country + "' -> '" + countryCode + "'");
+      log.debug("Country mapping: '{}' -> '{}'", p.country, countryCode);
     }
     
     if (notBlank(p.vatId))  tp.addVATID(p.vatId);
@@ -428,186 +653,465 @@ public class FacturxService {
   }
 
   /**
-   * Wendet Rundungsausgleich je MwSt-Kategorie an, um Differenzen zwischen
-   * Brutto→Netto Umrechnung zu eliminieren.
+   * Rundungsausgleich je MwSt-Kategorie, siehe {@link #roundingAdjustments}. Jeder Ausgleich wird
+   * als Position mit Satz und Kategorie seiner Gruppe angelegt, ein nicht erreichbarer Rest als
+   * steuerfreie Position.
    */
-  private static void applyRoundingAdjustment(Invoice inv, List<Line> lines, TotalsDTO totals, List<Prep> preps) {
-    if (lines == null || lines.isEmpty() || totals == null) {
-      return;
-    }
-
-    System.out.println("DEBUG: Starting rounding adjustment analysis...");
-
-    // Vereinfachter Ansatz: Verwende die Totals aus der Eingabe
-    if (notBlank(totals.grandTotalGross)) {
-      BigDecimal expectedGrossTotal = bd2(totals.grandTotalGross);
-      System.out.println("DEBUG: Expected gross total from input: " + expectedGrossTotal);
-      
-      // Berechne die tatsächliche Brutto-Summe aus den Items
-      // WICHTIG: Berechne erst die Gesamtsumme, dann runde (vermeidet Rundungsfehler)
-      BigDecimal totalNetAmount = BigDecimal.ZERO;
-      BigDecimal totalGrossAmount = BigDecimal.ZERO;
-      BigDecimal mostCommonVatRate = BigDecimal.ZERO;
-      
-      // Verwende die gleichen angepassten Einzelpreise wie für die Mustang Library
-      for (Prep p : preps) {
-        if (!notBlank(p.src.description) || !notBlank(p.src.quantity)) {
-          continue;
-        }
-        
-        // WICHTIG: Berücksichtige auch negative Preise in der Rundungsberechnung
-        // Diese werden als Credit Items behandelt und müssen in der Gesamtberechnung enthalten sein
-        
-      // Verwende die gleiche Logik wie in der Item-Erstellung
-      // Berechne die gewünschte Netto-Positionssumme
-      BigDecimal originalUnitNet = p.src.unitNetPriceBD();
-      BigDecimal lineNet = originalUnitNet.multiply(p.qty).setScale(2, RoundingMode.HALF_UP);
-      
-      // Positionsrabatt berücksichtigen
-      if (notBlank(p.src.discount)) {
-        BigDecimal discNet = bd2(p.src.discount);
-        if (discNet.compareTo(BigDecimal.ZERO) > 0) {
-          lineNet = lineNet.subtract(discNet).setScale(2, RoundingMode.HALF_UP);
-          if (lineNet.compareTo(BigDecimal.ZERO) < 0) lineNet = BigDecimal.ZERO;
-        }
-      }
-      
-      // WICHTIG: Verwende den bereits berechneten adjustedUnitNet für die korrekte Positionssumme
-      // Das ist der Wert, der tatsächlich an Mustang übergeben wird
-      // Für negative Preise verwende den ursprünglichen Wert (da sie als Credit Items behandelt werden)
-      BigDecimal actualLineNet;
-      if (p.unitNetOrig.compareTo(BigDecimal.ZERO) < 0) {
-        // Für negative Preise: verwende den ursprünglichen Wert (wird als Credit Item hinzugefügt)
-        actualLineNet = originalUnitNet.multiply(p.qty).setScale(2, RoundingMode.HALF_UP);
-      } else {
-        // Für positive Preise: verwende den angepassten Wert
-        actualLineNet = p.unitNetAdjusted.multiply(p.qty).setScale(2, RoundingMode.HALF_UP);
-      }
-        
-      // Berechne Brutto-Betrag für diese Zeile (2 Dezimalstellen) mit dem korrekten Netto-Betrag
-      BigDecimal lineGross = actualLineNet.multiply(BigDecimal.ONE.add(p.vatPct.movePointLeft(2))).setScale(2, RoundingMode.HALF_UP);
-      
-      // Addiere zu Gesamtsummen
-      totalNetAmount = totalNetAmount.add(actualLineNet);
-      totalGrossAmount = totalGrossAmount.add(lineGross);
-        
-        // Speichere die häufigste MwSt-Rate (für die Gesamtberechnung)
-        if (p.vatPct.compareTo(mostCommonVatRate) > 0) {
-          mostCommonVatRate = p.vatPct;
-        }
-        
-        System.out.println("DEBUG: Line " + p.src.description + " -> Net: " + actualLineNet + ", Gross: " + lineGross);
-      }
-      
-      // Die Netto-Gesamtsumme ist bereits auf 2 Dezimalstellen gerundet
-      BigDecimal actualNetTotal = totalNetAmount;
-      
-      // WICHTIG: Berechne Brutto-Gesamtsumme aus der Netto-Gesamtsumme (nicht durch Addition der Zeilen)
-      // Verwende die häufigste MwSt-Rate (Standard: 19% falls keine gefunden)
-      if (mostCommonVatRate.compareTo(BigDecimal.ZERO) == 0) {
-        mostCommonVatRate = new BigDecimal("19");
+  private static void applyRoundingAdjustment(Invoice inv, TotalsDTO totals, List<LineCalc> calcs) {
+    List<RoundingAdjustment> adjustments = roundingAdjustments(totals, calcs);
+    for (RoundingAdjustment a : adjustments) {
+      String name = adjustments.size() == 1 ? "Rundungsausgleich"
+          : "Rundungsausgleich " + a.vatPercent().stripTrailingZeros().toPlainString() + "%"
+            + (a.category() != null ? " " + a.category() : "");
+      addRoundingAdjustment(inv, a, name);
+    }
+  }
+
+  /**
+   * Ausgleichsposten, mit denen die Rechnung auf den erwarteten Brutto-Gesamtbetrag kommt.
+   *
+   * Netto und positionsweise gerundetes Brutto werden in einem Durchlauf je (Satz, Kategorie)
+   * summiert; MwSt und Brutto jeder Kategorie ergeben sich wie in der Rechnung aus der
+   * Netto-Summe. Erklären die Differenzen zwischen positionsweisem und summarischem Brutto die
+   * Abweichung zum erwarteten Gesamtbetrag genau, gleicht jede Kategorie ihre eigene Differenz
+   * aus; sonst (z.B. Rundung im Quellsystem) geht die ganze Abweichung an die Kategorie mit dem
+   * größten Brutto. Der Ausgleich ist ein Netto-Betrag in der Kategorie, sodass deren MwSt auf die
+   * neue Netto-Summe stimmt. Was über 0 % nicht genau erreichbar ist (ein Cent Netto kann zwei
+   * Cent Brutto ergeben), geht an eine 0-%-Kategorie der Rechnung oder als steuerfreier Posten "E".
+   *
+   * Gerechnet wird in Cent-longs ({@link VatBreakdown}); Beträge, die dort nicht hineinpassen,
+   * rechnet {@link #roundingAdjustmentsExact} mit demselben Ergebnis in BigDecimal.
+   *
+   * @return leer, wenn kein Ausgleich nötig ist
+   */
+  static List<RoundingAdjustment> roundingAdjustments(TotalsDTO totals, List<LineCalc> calcs) {
+    if (calcs.isEmpty() || totals == null || !notBlank(totals.grandTotalGross)) {
+      return List.of();
+    }
+
+    log.debug("Starting rounding adjustment analysis...");
+    BigDecimal expected = bd2(totals.grandTotalGross);
+    BigDecimal discount = notBlank(totals.discountGross) ? bd2(totals.discountGross) : BigDecimal.ZERO.setScale(2);
+    try {
+      return roundingAdjustmentsFixed(expected, discount, calcs);
+    } catch (ArithmeticException e) {
+      log.debug("Invoice amounts exceed the long range, reconciling with BigDecimal");
+      return roundingAdjustmentsExact(expected, discount, calcs);
+    }
+  }
+
+  /** @throws ArithmeticException wenn ein Betrag nicht in einen long (Cent) passt */
+  private static List<RoundingAdjustment> roundingAdjustmentsFixed(BigDecimal expectedAmount, BigDecimal discountAmount,
+                                                                   List<LineCalc> calcs) {
+    long expected = cents(expectedAmount);
+    long discount = cents(discountAmount);
+    if (expected == FixedPoint.INVALID || discount == FixedPoint.INVALID) {
+      throw new ArithmeticException("totals out of range");
+    }
+    VatBreakdown breakdown = new VatBreakdown();
+    for (LineCalc c : calcs) {
+      long rate = cents(c.vatPct());
+      // Der Satz teilt sich den Schlüssel in VatBreakdown mit der Kategorie
+      if (c.netCents() == FixedPoint.INVALID || c.grossCents() == FixedPoint.INVALID
+          || rate == FixedPoint.INVALID || Math.abs(rate) > Long.MAX_VALUE >> 16) {
+        throw new ArithmeticException("line amount out of range");
       }
-      BigDecimal actualGrossTotal = actualNetTotal.multiply(BigDecimal.ONE.add(mostCommonVatRate.movePointLeft(2)));
-      actualGrossTotal = actualGrossTotal.setScale(2, RoundingMode.HALF_UP);
-      
-      // WICHTIG: Berücksichtige Rechnungsrabatt in der Berechnung
-      // Der expectedGrossTotal ist der finale Betrag NACH dem Rechnungsrabatt
-      // Aber unsere actualGrossTotal Berechnung berücksichtigt den Rechnungsrabatt nicht
-      // Daher müssen wir den Rechnungsrabatt von unserer Berechnung abziehen
-      if (totals != null && notBlank(totals.discountGross)) {
-        BigDecimal invoiceDiscount = bd2(totals.discountGross);
-        if (invoiceDiscount.compareTo(BigDecimal.ZERO) > 0) {
-          // Der Rechnungsrabatt wurde als separater Item hinzugefügt (negativer Betrag)
-          // Daher müssen wir ihn von unserer Berechnung abziehen, um den korrekten Vergleich zu haben
-          actualGrossTotal = actualGrossTotal.subtract(invoiceDiscount);
-          System.out.println("DEBUG: Subtracting invoice-level discount of " + invoiceDiscount + " from calculated total");
-        }
+      breakdown.add(rate, c.src().taxCategory, c.netCents(), c.grossCents());
+    }
+
+    int[] slots = breakdown.slots();
+    long[] difference = new long[slots.length];
+    long actual = 0;
+    long explained = 0;
+    int largest = 0;
+    for (int i = 0; i < slots.length; i++) {
+      int slot = slots[i];
+      long gross = breakdown.gross(slot);
+      actual = Math.addExact(actual, gross);
+      difference[i] = Math.subtractExact(breakdown.lineGross(slot), gross);
+      explained = Math.addExact(explained, difference[i]);
+      if (Math.abs(gross) > Math.abs(breakdown.gross(slots[largest]))) largest = i;
+      log.debug("VAT {}% {}: net {}, VAT {}, gross {}, line gross {}", breakdown.rate(slot),
+          breakdown.category(slot), BigDecimal.valueOf(breakdown.net(slot), 2),
+          BigDecimal.valueOf(breakdown.vat(slot), 2), BigDecimal.valueOf(gross, 2),
+          BigDecimal.valueOf(breakdown.lineGross(slot), 2));
+    }
+    // Rechnungsrabatt ist als eigene Position enthalten, das erwartete Total ist nach Rabatt
+    if (discount > 0) {
+      actual = Math.subtractExact(actual, discount);
+    }
+    long delta = Math.subtractExact(expected, actual);
+    log.debug("Total gross: {}, expected: {}, delta: {}", BigDecimal.valueOf(actual, 2),
+        BigDecimal.valueOf(expected, 2), BigDecimal.valueOf(delta, 2));
+    if (delta == 0) {
+      log.debug("No gross total adjustment needed");
+      return List.of();
+    }
+    long[] target = new long[slots.length];
+    if (explained == delta) {
+      target = difference;
+    } else {
+      target[largest] = delta;
+    }
+
+    // Absteigend nach Satz: 0-%-Kategorien kommen zuletzt und nehmen den Rest exakt auf
+    List<RoundingAdjustment> adjustments = new ArrayList<>();
+    long rest = 0;
+    for (int i = slots.length - 1; i >= 0; i--) {
+      int slot = slots[i];
+      long gross = breakdown.vatRate(slot) == 0 ? Math.addExact(target[i], rest) : target[i];
+      if (gross == 0) continue;
+      long net = breakdown.netForGross(slot, gross);
+      rest = breakdown.vatRate(slot) == 0 ? 0 : Math.addExact(rest, Math.subtractExact(gross, breakdown.grossChange(slot, net)));
+      if (net != 0) {
+        adjustments.add(new RoundingAdjustment(breakdown.rate(slot), breakdown.category(slot), net));
       }
-      
-      System.out.println("DEBUG: Total Net: " + actualNetTotal + ", Total Gross: " + actualGrossTotal);
-      
-      System.out.println("DEBUG: Calculated gross total: " + actualGrossTotal + ", Expected: " + expectedGrossTotal);
-      
-      // Berechne die Differenz
-      BigDecimal grossDelta = expectedGrossTotal.subtract(actualGrossTotal);
-      System.out.println("DEBUG: Gross delta: " + grossDelta);
-      
-      // Wenn es eine signifikante Differenz gibt, füge einen Rundungsausgleich hinzu
-      // Threshold für 2-Dezimalstellen-Rundung (mindestens 0.01 EUR Unterschied)
-      if (grossDelta.abs().compareTo(new BigDecimal("0.01")) >= 0) {
-        System.out.println("DEBUG: Applying gross total adjustment: " + grossDelta);
-        
-        // Runde den Anpassungsbetrag auf 2 Dezimalstellen für Konsistenz
-        BigDecimal adjustmentAmount = grossDelta.setScale(2, RoundingMode.HALF_UP);
-        
-        VatCategoryInfo info = new VatCategoryInfo();
-        info.vatPercent = new BigDecimal("19"); // Standard MwSt-Satz
-        info.taxCategory = "S";
-        
-        if (adjustmentAmount.compareTo(BigDecimal.ZERO) > 0) {
-          // Positive Differenz: Charge (Zuschlag) hinzufügen
-          addRoundingAdjustment(inv, info, adjustmentAmount, false);
-        } else {
-          // Negative Differenz: Allowance (Rabatt) hinzufügen
-          addRoundingAdjustment(inv, info, adjustmentAmount.abs(), true);
-        }
-      } else {
-        System.out.println("DEBUG: No gross total adjustment needed");
+    }
+    if (rest != 0) {
+      adjustments.add(new RoundingAdjustment(BigDecimal.ZERO.setScale(2), "E", rest));
+    }
+    return adjustments;
+  }
+
+  /** {@link #roundingAdjustmentsFixed} in BigDecimal, Gruppen in derselben Reihenfolge wie {@link VatBreakdown#slots()}. */
+  static List<RoundingAdjustment> roundingAdjustmentsExact(BigDecimal expected, BigDecimal discount,
+                                                                   List<LineCalc> calcs) {
+    TreeMap<VatGroup, VatGroup> byKey = new TreeMap<>();
+    for (LineCalc c : calcs) {
+      VatGroup key = new VatGroup(c.vatPct(), c.src().taxCategory);
+      VatGroup group = byKey.computeIfAbsent(key, k -> k);
+      group.net = group.net.add(c.actualLineNet());
+      group.lineGross = group.lineGross.add(c.lineGross());
+    }
+    List<VatGroup> groups = new ArrayList<>(byKey.values());
+
+    BigDecimal[] difference = new BigDecimal[groups.size()];
+    BigDecimal actual = BigDecimal.ZERO.setScale(2);
+    BigDecimal explained = BigDecimal.ZERO.setScale(2);
+    int largest = 0;
+    for (int i = 0; i < groups.size(); i++) {
+      VatGroup g = groups.get(i);
+      actual = actual.add(g.gross());
+      difference[i] = g.lineGross.subtract(g.gross());
+      explained = explained.add(difference[i]);
+      if (g.gross().abs().compareTo(groups.get(largest).gross().abs()) > 0) largest = i;
+    }
+    if (discount.signum() > 0) {
+      actual = actual.subtract(discount);
+    }
+    BigDecimal delta = expected.subtract(actual);
+    log.debug("Total gross: {}, expected: {}, delta: {}", actual, expected, delta);
+    if (delta.signum() == 0) {
+      return List.of();
+    }
+    BigDecimal[] target = new BigDecimal[groups.size()];
+    Arrays.fill(target, BigDecimal.ZERO.setScale(2));
+    if (explained.compareTo(delta) == 0) {
+      target = difference;
+    } else {
+      target[largest] = delta;
+    }
+
+    List<RoundingAdjustment> adjustments = new ArrayList<>();
+    BigDecimal rest = BigDecimal.ZERO.setScale(2);
+    for (int i = groups.size() - 1; i >= 0; i--) {
+      VatGroup g = groups.get(i);
+      boolean zeroRate = g.rate.signum() == 0;
+      BigDecimal gross = zeroRate ? target[i].add(rest) : target[i];
+      if (gross.signum() == 0) continue;
+      BigDecimal net = g.netForGross(gross);
+      rest = zeroRate ? BigDecimal.ZERO.setScale(2) : rest.add(gross.subtract(g.grossChange(net)));
+      if (net.signum() != 0) {
+        adjustments.add(new RoundingAdjustment(g.rate, g.category, net));
       }
     }
+    if (rest.signum() != 0) {
+      adjustments.add(new RoundingAdjustment(BigDecimal.ZERO.setScale(2), "E", rest));
+    }
+    return adjustments;
   }
-  
+
   /**
-   * Berechnet das tatsächliche Netto für eine MwSt-Kategorie aus den bereits hinzugefügten Items.
-   * Da die Mustang Library keine getItems() Methode hat, verwenden wir eine alternative Berechnung.
+   * Summen einer MwSt-Gruppe für {@link #roundingAdjustmentsExact}; Rechenregeln wie
+   * {@link VatBreakdown}, Beträge mit Skala 2.
    */
-  private static BigDecimal calculateActualNetForVatCategory(Invoice inv, BigDecimal vatPercent, String taxCategory) {
-    // Da wir keinen direkten Zugriff auf die Items haben, verwenden wir eine vereinfachte Berechnung
-    // Die tatsächliche Netto-Summe wird durch die Mustang Library intern berechnet
-    // Für den Rundungsausgleich verwenden wir eine Schätzung basierend auf der Brutto-Summe
-    
-    System.out.println("DEBUG: Cannot access items directly from Mustang Invoice, using alternative calculation");
-    return BigDecimal.ZERO; // Placeholder - wird durch die Mustang Library intern berechnet
+  private static final class VatGroup implements Comparable<VatGroup> {
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final BigDecimal CENT = new BigDecimal("0.01");
+
+    final BigDecimal rate;
+    final String category;
+    BigDecimal net = BigDecimal.ZERO.setScale(2);
+    BigDecimal lineGross = BigDecimal.ZERO.setScale(2);
+
+    VatGroup(BigDecimal rate, String category) {
+      this.rate = rate;
+      this.category = notBlank(category) ? category.trim() : null;
+    }
+
+    BigDecimal gross() {
+      return withVat(net);
+    }
+
+    BigDecimal grossChange(BigDecimal n) {
+      return withVat(net.add(n)).subtract(gross());
+    }
+
+    /** Wie {@link VatBreakdown#netForGross}. */
+    BigDecimal netForGross(BigDecimal g) {
+      BigDecimal guess = g.multiply(HUNDRED).divide(HUNDRED.add(rate), 2, RoundingMode.HALF_UP);
+      BigDecimal best = guess;
+      BigDecimal bestMiss = grossChange(guess).subtract(g).abs();
+      for (BigDecimal n = guess.subtract(CENT); n.compareTo(guess.add(CENT)) <= 0; n = n.add(CENT)) {
+        BigDecimal miss = grossChange(n).subtract(g).abs();
+        int cmp = miss.compareTo(bestMiss);
+        if (cmp < 0 || (cmp == 0 && n.abs().compareTo(best.abs()) < 0)) {
+          best = n;
+          bestMiss = miss;
+        }
+      }
+      return best;
+    }
+
+    private BigDecimal withVat(BigDecimal amount) {
+      return amount.add(amount.multiply(rate).movePointLeft(2).setScale(2, RoundingMode.HALF_UP));
+    }
+
+    @Override
+    public int compareTo(VatGroup o) {
+      int c = rate.compareTo(o.rate);
+      if (c != 0) return c;
+      if (category == null || o.category == null) return category == null ? (o.category == null ? 0 : -1) : 1;
+      return category.compareTo(o.category);
+    }
   }
-  
+
   /**
-   * Fügt einen Rundungsausgleich als Allowance/Charge oder Fallback-Item hinzu.
+   * Fügt einen Rundungsausgleich als Position (Charge bei positivem, Allowance bei negativem
+   * Betrag) mit Satz und Kategorie seiner MwSt-Gruppe hinzu.
    */
-  private static void addRoundingAdjustment(Invoice inv, VatCategoryInfo info, BigDecimal amount, boolean isAllowance) {
+  private static void addRoundingAdjustment(Invoice inv, RoundingAdjustment adjustment, String name) {
     // Use fallback approach directly since Document-level Allowance/Charge has issues with VAT percentage
-    System.out.println("INFO: Using fallback item approach for rounding adjustment");
     
     Product adjustmentProd = new Product();
-    adjustmentProd.setName("Rundungsausgleich")
+    adjustmentProd.setName(name)
                  .setUnit("C62")
-                 .setVATPercent(BigDecimal.ZERO); // Rundungsausgleich ist steuerfrei
-    adjustmentProd.setTaxCategoryCode("E"); // E = Exempt (steuerfrei)
-    
-    // Verwende den exakten Betrag (bereits auf 2 Dezimalstellen gerundet)
-    BigDecimal itemAmount = isAllowance ? amount.negate() : amount;
+                 .setVATPercent(adjustment.vatPercent());
+    // Ohne Code wie die Positionen der Gruppe: Mustang leitet ihn gleich ab
+    if (adjustment.category() != null) {
+      adjustmentProd.setTaxCategoryCode(adjustment.category());
+    }
     
-    Item adjustmentItem = new Item(adjustmentProd, itemAmount, BigDecimal.ONE);
+    Item adjustmentItem = new Item(adjustmentProd, adjustment.net(), BigDecimal.ONE);
     inv.addItem(adjustmentItem);
     
-    System.out.println("INFO: Rundungsausgleich hinzugefügt - Kategorie: " + info.vatPercent + "%/" + info.taxCategory + 
-                      ", Delta: " + (isAllowance ? "-" : "+") + amount + " EUR, Methode: Fallback-Item");
+    log.debug("Rundungsausgleich hinzugefügt - Kategorie: {}%/{}, Netto: {} EUR, Methode: Fallback-Item",
+        adjustment.vatPercent(), adjustment.category(), adjustment.net());
   }
   
 
   /**
-   * Hilfsklasse für MwSt-Kategorie-Informationen.
+   * Ein Ausgleichsposten.
+   *
+   * @param vatPercent MwSt-Satz der Gruppe
+   * @param category   Kategorie-Code, {@code null} wenn die Positionen der Gruppe keinen haben
+   * @param net        Netto-Betrag (Skala 2), negativ als Allowance
+   */
+  record RoundingAdjustment(BigDecimal vatPercent, String category, BigDecimal net) {
+    RoundingAdjustment(BigDecimal vatPercent, String category, long netCents) {
+      this(vatPercent, category, BigDecimal.valueOf(netCents, 2));
+    }
+  }
+
+  /**
+   * Einmal je Position berechnete Werte, damit Item-Aufbau und Rundungsausgleich nichts erneut
+   * parsen oder rechnen.
+   *
+   * @param unitNet         Netto-Einzelpreis aus net_price bzw. gross_price (kann negativ sein)
+   * @param discount        Positionsrabatt (netto), {@code null} wenn keiner oder nicht positiv
+   * @param lineNet         gewünschte Netto-Positionssumme nach Rabatt (mind. 0)
+   * @param adjustedUnitNet an Mustang übergebener Einzelpreis; {@code null} wenn {@code itemSkipped}
+   * @param actualLineNet   Netto-Positionssumme, wie sie in der Rechnung landet
+   * @param lineGross       Brutto zu {@code actualLineNet}
+   * @param credit          negativer Preis: zusätzliche Gutschrift-Position
+   * @param itemSkipped     keine reguläre Position (negativer Einzelpreis nach Rabatt)
+   * @param netCents        {@code actualLineNet} in Cent, {@link FixedPoint#INVALID} wenn zu groß
+   * @param grossCents      {@code lineGross} in Cent, {@link FixedPoint#INVALID} wenn zu groß
    */
-  private static class VatCategoryInfo {
-    BigDecimal vatPercent = BigDecimal.ZERO;
-    String taxCategory = "S";
-    BigDecimal grossSum = BigDecimal.ZERO;
-  }
-
-  static class Prep {
-    Line src;
-    BigDecimal qty;
-    BigDecimal vatPct;      // z.B. 19
-    BigDecimal unitNetOrig; // aus net_price oder aus gross_price abgeleitet
-    BigDecimal unitNetAdjusted; // der angepasste Einzelpreis für Mustang
+  record LineCalc(Line src, String unit, BigDecimal qty, BigDecimal vatPct, BigDecimal unitNet,
+                  BigDecimal discount, BigDecimal lineNet, BigDecimal adjustedUnitNet,
+                  BigDecimal actualLineNet, BigDecimal lineGross, boolean credit, boolean itemSkipped,
+                  long netCents, long grossCents) {}
+
+  /** Berechnet eine Position mit der konfigurierten Engine. */
+  static LineCalc computeLine(Line l, TotalsEngine engine, BuildMetrics metrics) {
+    switch (engine) {
+      case FIXED: {
+        LineCalc fixed = computeLineFixed(l);
+        return fixed != null ? fixed : computeLine(l);
+      }
+      case SHADOW: {
+        LineCalc reference = computeLine(l);
+        LineCalc fixed = computeLineFixed(l);
+        if (fixed != null && !fixed.equals(reference)) {
+          metrics.totalsMismatch("line");
+          log.warn("Fixed-point line result differs for '{}': {} vs. BigDecimal {}", l.description, fixed, reference);
+        }
+        return reference;
+      }
+      default:
+        return computeLine(l);
+    }
+  }
+
+  static LineCalc computeLine(Line l) {
+    if (!notBlank(l.description)) throw new IllegalArgumentException("Line: description required");
+    if (!notBlank(l.quantity))    throw new IllegalArgumentException("Line: quantity required");
+
+    BigDecimal qty       = bd4(l.quantity);
+    BigDecimal vatPct    = bd2(defaultIfBlank(l.taxRate, "0"));
+    BigDecimal vatFactor = BigDecimal.ONE.add(vatPct.movePointLeft(2));
+    BigDecimal unitNet   = l.unitNetPriceBD();
+    String unit = notBlank(l.unitCode) ? l.unitCode : "C62";
+
+    BigDecimal discount = null;
+    if (notBlank(l.discount)) {
+      BigDecimal d = bd2(l.discount);
+      if (d.compareTo(BigDecimal.ZERO) > 0) discount = d;
+    }
+
+    // Rabattierter Einzelpreis: entscheidet, ob die Position regulär angelegt wird
+    BigDecimal unitNetDiscounted = unitNet;
+    if (discount != null) {
+      BigDecimal net = unitNet.multiply(qty).subtract(discount).setScale(2, RoundingMode.HALF_UP);
+      if (net.compareTo(BigDecimal.ZERO) < 0) net = BigDecimal.ZERO;
+      unitNetDiscounted = net.divide(qty, 2, RoundingMode.HALF_UP);
+    }
+    boolean itemSkipped = unitNetDiscounted.compareTo(BigDecimal.ZERO) < 0;
+    boolean credit = unitNet.compareTo(BigDecimal.ZERO) < 0;
+    if (credit) {
+      log.debug("Negative price line: {} ({})", l.description, unitNet);
+    }
+
+    // Gewünschte Positionssumme (netto, nach Rabatt)
+    BigDecimal lineNet = unitNet.multiply(qty).setScale(2, RoundingMode.HALF_UP);
+    if (discount != null) {
+      lineNet = lineNet.subtract(discount).setScale(2, RoundingMode.HALF_UP);
+      if (lineNet.compareTo(BigDecimal.ZERO) < 0) lineNet = BigDecimal.ZERO;
+    }
+
+    // Einzelpreis so wählen, dass Mustang auf die gewünschte Brutto-Positionssumme kommt
+    // Mustang Library berechnet: (Einzelpreis × Menge) × (1 + MwSt)
+    // Also: Einzelpreis = Brutto-Positionssumme / (Menge × (1 + MwSt))
+    BigDecimal adjustedUnitNet = null;
+    BigDecimal actualLineNet;
+    if (itemSkipped) {
+      // Für negative Preise: ursprünglicher Wert (wird als Credit Item hinzugefügt)
+      actualLineNet = unitNet.multiply(qty).setScale(2, RoundingMode.HALF_UP);
+    } else {
+      BigDecimal targetGrossLine = lineNet.multiply(vatFactor).setScale(2, RoundingMode.HALF_UP);
+      adjustedUnitNet = targetGrossLine.divide(qty.multiply(vatFactor), 2, RoundingMode.HALF_UP);
+      actualLineNet = adjustedUnitNet.multiply(qty).setScale(2, RoundingMode.HALF_UP);
+    }
+    BigDecimal lineGross = actualLineNet.multiply(vatFactor).setScale(2, RoundingMode.HALF_UP);
+
+    return new LineCalc(l, unit, qty, vatPct, unitNet, discount, lineNet, adjustedUnitNet,
+        actualLineNet, lineGross, credit, itemSkipped, cents(actualLineNet), cents(lineGross));
+  }
+
+  /**
+   * Dieselbe Rechnung wie {@link #computeLine(Line)} auf skalierten longs (Menge und Preise in
+   * Zehntausendsteln, Beträge in Cent). Liefert {@code null}, wenn die Eingabe nicht exakt
+   * darstellbar ist, ein Überlauf droht oder sie ungültig ist; dann rechnet BigDecimal (und wirft
+   * gegebenenfalls die gewohnte Exception).
+   */
+  static LineCalc computeLineFixed(Line l) {
+    if (!notBlank(l.description) || !notBlank(l.quantity)) return null;
+    try {
+      long qty = FixedPoint.parse(l.quantity, 4, false);
+      long vat = FixedPoint.parse(defaultIfBlank(l.taxRate, "0"), 2, false);
+      if (qty == FixedPoint.INVALID || vat == FixedPoint.INVALID) return null;
+      long vatFactor = 10000 + vat; // 1 + MwSt/100 in Zehntausendsteln
+
+      // Netto-Einzelpreis wie Line.unitNetPriceBD(): net_price exakt, sonst aus gross_price
+      long unitNet;
+      BigDecimal unitNetBD;
+      if (notBlank(l.netPrice)) {
+        int scale = FixedPoint.scaleOf(l.netPrice);
+        if (scale < 0 || scale > 4) return null;
+        long raw = FixedPoint.parse(l.netPrice, scale, true);
+        if (raw == FixedPoint.INVALID) return null;
+        unitNetBD = BigDecimal.valueOf(raw, scale);
+        unitNet = Math.multiplyExact(raw, FixedPoint.pow10(4 - scale));
+      } else if (notBlank(l.grossPrice) && l.taxRate != null) {
+        int rateScale = FixedPoint.scaleOf(l.taxRate);
+        int grossScale = FixedPoint.scaleOf(l.grossPrice);
+        if (rateScale < 0 || rateScale > 2 || grossScale < 0 || grossScale > 4) return null;
+        long gross = FixedPoint.parse(l.grossPrice, 4, true);
+        long rate = FixedPoint.parse(l.taxRate, 2, true);
+        if (gross == FixedPoint.INVALID || rate == FixedPoint.INVALID) return null;
+        unitNet = FixedPoint.divRound(Math.multiplyExact(gross, 10000), 10000 + rate);
+        unitNetBD = BigDecimal.valueOf(unitNet, 4);
+      } else {
+        return null;
+      }
+      String unit = notBlank(l.unitCode) ? l.unitCode : "C62";
+
+      long discount = 0;
+      if (notBlank(l.discount)) {
+        discount = FixedPoint.parse(l.discount, 2, false);
+        if (discount == FixedPoint.INVALID) return null;
+        if (discount < 0) discount = 0;
+      }
+
+      // Netto × Menge hat Skala 8; Cent = Skala 2
+      long grossLine8 = Math.multiplyExact(unitNet, qty);
+      boolean itemSkipped;
+      if (discount > 0) {
+        long net = FixedPoint.divRound(Math.subtractExact(grossLine8, Math.multiplyExact(discount, 1_000_000)), 1_000_000);
+        if (net < 0) net = 0;
+        itemSkipped = FixedPoint.divRound(Math.multiplyExact(net, 10000), qty) < 0;
+      } else {
+        itemSkipped = unitNet < 0;
+      }
+      boolean credit = unitNet < 0;
+
+      long lineNet = FixedPoint.divRound(grossLine8, 1_000_000);
+      boolean clamped = false;
+      if (discount > 0) {
+        lineNet = Math.subtractExact(lineNet, discount);
+        if (lineNet < 0) {
+          lineNet = 0;
+          clamped = true;
+        }
+      }
+
+      BigDecimal adjustedUnitNet = null;
+      long actualLineNet;
+      if (itemSkipped) {
+        actualLineNet = FixedPoint.divRound(grossLine8, 1_000_000);
+      } else {
+        long targetGrossLine = FixedPoint.mulRound(lineNet, vatFactor, 4);
+        long adjusted = FixedPoint.divRound(Math.multiplyExact(targetGrossLine, 100_000_000L), Math.multiplyExact(qty, vatFactor));
+        adjustedUnitNet = BigDecimal.valueOf(adjusted, 2);
+        actualLineNet = FixedPoint.mulRound(adjusted, qty, 4);
+      }
+      long lineGross = FixedPoint.mulRound(actualLineNet, vatFactor, 4);
+
+      return new LineCalc(l, unit, BigDecimal.valueOf(qty, 4), BigDecimal.valueOf(vat, 2), unitNetBD,
+          discount > 0 ? BigDecimal.valueOf(discount, 2) : null,
+          clamped ? BigDecimal.ZERO : BigDecimal.valueOf(lineNet, 2),
+          adjustedUnitNet, BigDecimal.valueOf(actualLineNet, 2), BigDecimal.valueOf(lineGross, 2),
+          credit, itemSkipped, actualLineNet, lineGross);
+    } catch (ArithmeticException e) {
+      // Überlauf oder Division durch 0
+      return null;
+    }
+  }
+
+  /** Wert mit Skala 2 als long (Cent, Hundertstel-Prozent), {@link FixedPoint#INVALID} wenn er nicht passt. */
+  private static long cents(BigDecimal amount) {
+    return amount.scale() == 2 && amount.precision() < 19
+        ? amount.unscaledValue().longValue() : FixedPoint.INVALID;
   }
 }
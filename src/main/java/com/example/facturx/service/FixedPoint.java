@@ -0,0 +1,120 @@
+package com.example.facturx.service;
+
+/**
+ * Festkomma-Arithmetik auf skalierten {@code long}-Werten (z.B. Cent = Skala 2, Zehntausendstel =
+ * Skala 4) für den Totals-Engine-Modus {@code fixed}.
+ *
+ * Rundung ist durchgehend HALF_UP wie bei {@link java.math.RoundingMode#HALF_UP} (bei genau .5 von
+ * der Null weg), damit die Ergebnisse exakt dem BigDecimal-Pfad entsprechen. Überläufe werden über
+ * {@link Math#multiplyExact} erkannt und als {@link ArithmeticException} gemeldet; der Aufrufer
+ * fällt dann auf BigDecimal zurück.
+ */
+final class FixedPoint {
+
+  /** Kennzeichnet Eingaben, die sich nicht (exakt) darstellen lassen. */
+  static final long INVALID = Long.MIN_VALUE;
+
+  private static final long[] POW10 = new long[19];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+  }
+
+  private FixedPoint() {}
+
+  static long pow10(int n) {
+    return POW10[n];
+  }
+
+  /**
+   * Anzahl Nachkommastellen einer Dezimalzahl wie "12,50" oder "-3.1"; -1 wenn die Zeichenkette
+   * keine einfache Dezimalzahl ist (Exponent, Leerzeichen, mehrere Trenner, keine Ziffern).
+   */
+  static int scaleOf(String s) {
+    int n = s.length();
+    int i = n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+') ? 1 : 0;
+    int digits = 0;
+    int sep = -1;
+    for (; i < n; i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if ((c == '.' || c == ',') && sep < 0) {
+        sep = i;
+      } else {
+        return -1;
+      }
+    }
+    if (digits == 0) {
+      return -1;
+    }
+    return sep < 0 ? 0 : n - sep - 1;
+  }
+
+  /**
+   * Parst eine Dezimalzahl ("," oder "." als Trenner) auf die Skala {@code scale}.
+   *
+   * @param exact {@code true}: weitere Nachkommastellen müssen 0 sein; {@code false}: HALF_UP runden
+   * @return skalierter Wert oder {@link #INVALID} (ungültig, nicht exakt oder zu groß)
+   */
+  static long parse(String s, int scale, boolean exact) {
+    int sourceScale = scaleOf(s);
+    if (sourceScale < 0) {
+      return INVALID;
+    }
+    boolean negative = s.charAt(0) == '-';
+    long value = 0;
+    int frac = -1;
+    boolean roundUp = false;
+    try {
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '.' || c == ',') {
+          frac = 0;
+        } else if (c >= '0' && c <= '9') {
+          if (frac >= scale) {
+            // Abgeschnittene Stelle: nur die erste entscheidet über HALF_UP
+            if (exact && c != '0') return INVALID;
+            if (frac == scale && c >= '5') roundUp = true;
+            frac++;
+            continue;
+          }
+          value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+          if (frac >= 0) frac++;
+        }
+      }
+      int missing = scale - Math.max(frac, 0);
+      if (missing > 0) {
+        value = Math.multiplyExact(value, POW10[missing]);
+      }
+      if (roundUp) {
+        value = Math.addExact(value, 1);
+      }
+    } catch (ArithmeticException e) {
+      return INVALID;
+    }
+    return negative ? -value : value;
+  }
+
+  /** {@code a * b}, um {@code drop} Stellen HALF_UP gerundet. */
+  static long mulRound(long a, long b, int drop) {
+    return divRound(Math.multiplyExact(a, b), POW10[drop]);
+  }
+
+  /** {@code n / d}, HALF_UP auf eine ganze Zahl gerundet. */
+  static long divRound(long n, long d) {
+    if (d == 0) {
+      throw new ArithmeticException("Division by zero");
+    }
+    long q = n / d;
+    long r = Math.abs(n % d);
+    long ad = Math.abs(d);
+    if (r >= ad - r) {
+      q += (n < 0) == (d < 0) ? 1 : -1;
+    }
+    return q;
+  }
+}
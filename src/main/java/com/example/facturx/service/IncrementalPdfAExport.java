@@ -0,0 +1,349 @@
+package com.example.facturx.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+import org.mustangproject.Invoice;
+import org.mustangproject.ZUGFeRD.Profiles;
+import org.mustangproject.ZUGFeRD.ZUGFeRD2PullProvider;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Factur-X-Export für Quell-PDFs, die bereits PDF/A-3 sind ({@code facturx.export.incremental}).
+ *
+ * Statt das Dokument wie Mustang komplett neu zu schreiben und zu komprimieren, werden nur die
+ * neuen Objekte per {@link PDDocument#saveIncremental(OutputStream)} an die Originalbytes
+ * angehängt: eingebettete {@code factur-x.xml} (AFRelationship Alternative), /AF-Eintrag im
+ * Katalog und XMP-Metadaten mit der Factur-X-Erweiterung. Aufwand und CPU hängen damit an der
+ * Größe der XML, nicht an der des PDFs. Info-Dictionary und Datumsangaben bleiben unverändert,
+ * damit Info und XMP konsistent bleiben.
+ */
+final class IncrementalPdfAExport implements FacturxExport.Writer {
+
+  static final String FILE_NAME = "factur-x.xml";
+
+  private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+  private static final String EXTENSION = "http://www.aiim.org/pdfa/ns/extension/";
+
+  /** Factur-X-Eigenschaften und ihre PDF/A-Erweiterungsschema-Beschreibung (Factur-X 1.0, EN 16931). */
+  private static final String XMP_TEMPLATE = """
+      <rdf:RDF xmlns:rdf="http://www.w3.org/1999/02/22-rdf-syntax-ns#">
+        <rdf:Description rdf:about="" xmlns:fx="urn:factur-x:pdfa:CrossIndustryDocument:invoice:1p0#">
+          <fx:DocumentType>INVOICE</fx:DocumentType>
+          <fx:DocumentFileName>factur-x.xml</fx:DocumentFileName>
+          <fx:Version>1.0</fx:Version>
+          <fx:ConformanceLevel>EN 16931</fx:ConformanceLevel>
+        </rdf:Description>
+        <rdf:Description rdf:about="" xmlns:pdfaExtension="http://www.aiim.org/pdfa/ns/extension/"
+            xmlns:pdfaSchema="http://www.aiim.org/pdfa/ns/schema#" xmlns:pdfaProperty="http://www.aiim.org/pdfa/ns/property#">
+          <pdfaExtension:schemas>
+            <rdf:Bag>
+              <rdf:li rdf:parseType="Resource">
+                <pdfaSchema:schema>Factur-X PDFA Extension Schema</pdfaSchema:schema>
+                <pdfaSchema:namespaceURI>urn:factur-x:pdfa:CrossIndustryDocument:invoice:1p0#</pdfaSchema:namespaceURI>
+                <pdfaSchema:prefix>fx</pdfaSchema:prefix>
+                <pdfaSchema:property>
+                  <rdf:Seq>
+                    <rdf:li rdf:parseType="Resource">
+                      <pdfaProperty:name>DocumentFileName</pdfaProperty:name>
+                      <pdfaProperty:valueType>Text</pdfaProperty:valueType>
+                      <pdfaProperty:category>external</pdfaProperty:category>
+                      <pdfaProperty:description>name of the embedded XML invoice file</pdfaProperty:description>
+                    </rdf:li>
+                    <rdf:li rdf:parseType="Resource">
+                      <pdfaProperty:name>DocumentType</pdfaProperty:name>
+                      <pdfaProperty:valueType>Text</pdfaProperty:valueType>
+                      <pdfaProperty:category>external</pdfaProperty:category>
+                      <pdfaProperty:description>INVOICE</pdfaProperty:description>
+                    </rdf:li>
+                    <rdf:li rdf:parseType="Resource">
+                      <pdfaProperty:name>Version</pdfaProperty:name>
+                      <pdfaProperty:valueType>Text</pdfaProperty:valueType>
+                      <pdfaProperty:category>external</pdfaProperty:category>
+                      <pdfaProperty:description>The actual version of the Factur-X XML schema</pdfaProperty:description>
+                    </rdf:li>
+                    <rdf:li rdf:parseType="Resource">
+                      <pdfaProperty:name>ConformanceLevel</pdfaProperty:name>
+                      <pdfaProperty:valueType>Text</pdfaProperty:valueType>
+                      <pdfaProperty:category>external</pdfaProperty:category>
+                      <pdfaProperty:description>The conformance level of the embedded Factur-X data</pdfaProperty:description>
+                    </rdf:li>
+                  </rdf:Seq>
+                </pdfaSchema:property>
+              </rdf:li>
+            </rdf:Bag>
+          </pdfaExtension:schemas>
+        </rdf:Description>
+      </rdf:RDF>
+      """;
+
+  private final PDDocument doc;
+  private final Invoice invoice;
+  private final byte[] xml;
+
+  private IncrementalPdfAExport(PDDocument doc, Invoice invoice, byte[] xml) {
+    this.doc = doc;
+    this.invoice = invoice;
+    this.xml = xml;
+  }
+
+  /**
+   * Übernimmt das geladene Dokument, wenn es inkrementell ergänzt werden kann.
+   *
+   * @return {@code null}, wenn das PDF keine XMP-Metadaten hat, schon eine {@code factur-x.xml}
+   *         enthält oder einen verzweigten EmbeddedFiles-Baum hat; der Aufrufer schließt dann das
+   *         Dokument und nimmt den regulären Mustang-Export
+   */
+  static IncrementalPdfAExport of(PDDocument doc, Invoice invoice) throws IOException {
+    return extensible(doc) ? new IncrementalPdfAExport(doc, invoice, null) : null;
+  }
+
+  /** Wie {@link #of(PDDocument, Invoice)}, mit bereits erzeugter CII-XML. */
+  static IncrementalPdfAExport of(PDDocument doc, byte[] xml) throws IOException {
+    return extensible(doc) ? new IncrementalPdfAExport(doc, null, xml) : null;
+  }
+
+  private static boolean extensible(PDDocument doc) throws IOException {
+    PDDocumentCatalog catalog = doc.getDocumentCatalog();
+    if (catalog.getMetadata() == null) return false;
+    PDDocumentNameDictionary names = catalog.getNames();
+    PDEmbeddedFilesNameTreeNode files = names != null ? names.getEmbeddedFiles() : null;
+    return files == null || (files.getKids() == null
+        && (files.getNames() == null || !files.getNames().containsKey(FILE_NAME)));
+  }
+
+  @Override
+  public void export(OutputStream out) throws IOException {
+    PDDocumentCatalog catalog = doc.getDocumentCatalog();
+    Calendar now = Calendar.getInstance();
+
+    byte[] xml = this.xml;
+    if (xml == null) {
+      ZUGFeRD2PullProvider provider = new ZUGFeRD2PullProvider();
+      provider.setProfile(Profiles.getByName("EN16931"));
+      provider.generateXML(invoice);
+      xml = provider.getXML();
+    }
+
+    PDEmbeddedFile embedded = new PDEmbeddedFile(doc, new ByteArrayInputStream(xml));
+    embedded.setSubtype("text/xml");
+    embedded.setSize(xml.length);
+    embedded.setCreationDate(now);
+    embedded.setModDate(now);
+
+    PDComplexFileSpecification spec = new PDComplexFileSpecification();
+    spec.setFile(FILE_NAME);
+    spec.setFileUnicode(FILE_NAME);
+    spec.setFileDescription("Factur-X Invoice");
+    spec.setEmbeddedFile(embedded);
+    spec.setEmbeddedFileUnicode(embedded);
+    spec.getCOSObject().setName(COSName.AF_RELATIONSHIP, "Alternative");
+
+    // Pfad vom Katalog zu allen geänderten Objekten markieren, neue Objekte schreibt PDFBox mit
+    PDDocumentNameDictionary names = catalog.getNames();
+    if (names == null) {
+      names = new PDDocumentNameDictionary(catalog);
+      catalog.setNames(names);
+    }
+    PDEmbeddedFilesNameTreeNode files = names.getEmbeddedFiles();
+    if (files == null) {
+      files = new PDEmbeddedFilesNameTreeNode();
+      names.setEmbeddedFiles(files);
+    }
+    Map<String, PDComplexFileSpecification> entries = new HashMap<>();
+    if (files.getNames() != null) {
+      entries.putAll(files.getNames());
+    }
+    entries.put(FILE_NAME, spec);
+    files.setNames(entries);
+    names.getCOSObject().setNeedToBeUpdated(true);
+    files.getCOSObject().setNeedToBeUpdated(true);
+
+    COSArray af = catalog.getCOSObject().getCOSArray(COSName.AF);
+    if (af == null) {
+      af = new COSArray();
+      catalog.getCOSObject().setItem(COSName.AF, af);
+    }
+    af.add(spec);
+    af.setNeedToBeUpdated(true);
+
+    byte[] xmp;
+    try (InputStream in = catalog.getMetadata().exportXMPMetadata()) {
+      xmp = withFacturx(in.readAllBytes());
+    }
+    PDMetadata metadata = new PDMetadata(doc, new ByteArrayInputStream(xmp));
+    catalog.setMetadata(metadata);
+
+    catalog.getCOSObject().setNeedToBeUpdated(true);
+    doc.saveIncremental(out);
+  }
+
+  @Override
+  public void close() throws IOException {
+    doc.close();
+  }
+
+  /**
+   * Ergänzt das XMP-Paket um die Factur-X-Eigenschaften. Gibt es schon einen
+   * pdfaExtension:schemas-Eintrag (andere Erweiterungen), wird das Factur-X-Schema dort angehängt,
+   * denn eine zweite gleichnamige Eigenschaft wäre kein gültiges PDF/A-XMP.
+   */
+  static byte[] withFacturx(byte[] xmp) throws IOException {
+    try {
+      DocumentBuilder builder = builder();
+      Document packet = builder.parse(new ByteArrayInputStream(xmp));
+      Element rdf = first(packet.getElementsByTagNameNS(RDF, "RDF"));
+      if (rdf == null) {
+        throw new IOException("XMP metadata without rdf:RDF");
+      }
+      Element template = builder.parse(new ByteArrayInputStream(XMP_TEMPLATE.getBytes(StandardCharsets.UTF_8)))
+          .getDocumentElement();
+      NodeList descriptions = template.getElementsByTagNameNS(RDF, "Description");
+      Element fx = (Element) descriptions.item(0);
+      Element extension = (Element) descriptions.item(1);
+
+      rdf.appendChild(packet.importNode(fx, true));
+      Element schemas = first(packet.getElementsByTagNameNS(EXTENSION, "schemas"));
+      Element bag = schemas != null ? first(schemas.getElementsByTagNameNS(RDF, "Bag")) : null;
+      if (bag != null) {
+        Element schema = first(extension.getElementsByTagNameNS(RDF, "li"));
+        bag.appendChild(packet.importNode(schema, true));
+      } else {
+        rdf.appendChild(packet.importNode(extension, true));
+      }
+
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+      ByteArrayOutputStream out = new ByteArrayOutputStream(xmp.length + XMP_TEMPLATE.length());
+      transformer.transform(new DOMSource(packet), new StreamResult(out));
+      return out.toByteArray();
+    } catch (ParserConfigurationException | SAXException | TransformerException e) {
+      throw new IOException("Failed to extend XMP metadata: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Gegenstück zu {@link #withFacturx}: entfernt Factur-X-/ZUGFeRD-Eigenschaften und deren
+   * Erweiterungsschema aus einem XMP-Paket, z.B. aus Mustangs Ergebnis für {@link TemplateCache}.
+   */
+  static byte[] withoutFacturx(byte[] xmp) throws IOException {
+    try {
+      Document packet = builder().parse(new ByteArrayInputStream(xmp));
+      NodeList descriptions = packet.getElementsByTagNameNS(RDF, "Description");
+      for (int i = descriptions.getLength() - 1; i >= 0; i--) {
+        Element description = (Element) descriptions.item(i);
+        boolean removed = false;
+        for (Node n = description.getFirstChild(); n != null; ) {
+          Node next = n.getNextSibling();
+          if (n instanceof Element e && isFacturxNamespace(e.getNamespaceURI())) {
+            description.removeChild(e);
+            removed = true;
+          }
+          n = next;
+        }
+        for (int a = description.getAttributes().getLength() - 1; a >= 0; a--) {
+          Node attribute = description.getAttributes().item(a);
+          if (isFacturxNamespace(attribute.getNamespaceURI())) {
+            description.removeAttributeNode((Attr) attribute);
+            removed = true;
+          }
+        }
+        if (removed && isEmpty(description)) {
+          description.getParentNode().removeChild(description);
+        }
+      }
+
+      NodeList uris = packet.getElementsByTagNameNS("http://www.aiim.org/pdfa/ns/schema#", "namespaceURI");
+      for (int i = uris.getLength() - 1; i >= 0; i--) {
+        Node uri = uris.item(i);
+        if (!isFacturxNamespace(uri.getTextContent().trim())) continue;
+        Node schema = uri.getParentNode();
+        Node bag = schema.getParentNode();
+        bag.removeChild(schema);
+        if (first(bag.getChildNodes()) == null) {
+          // Leere Schema-Liste samt pdfaExtension:schemas entfernen, ggf. auch die leere Description
+          Node schemas = bag.getParentNode();
+          Node description = schemas.getParentNode();
+          description.removeChild(schemas);
+          if (description instanceof Element e && isEmpty(e)) {
+            description.getParentNode().removeChild(description);
+          }
+        }
+      }
+
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+      ByteArrayOutputStream out = new ByteArrayOutputStream(xmp.length);
+      transformer.transform(new DOMSource(packet), new StreamResult(out));
+      return out.toByteArray();
+    } catch (ParserConfigurationException | SAXException | TransformerException e) {
+      throw new IOException("Failed to strip XMP metadata: " + e.getMessage(), e);
+    }
+  }
+
+  /** Description ohne Eigenschaften: keine Kindelemente, nur rdf:about und Namespace-Deklarationen. */
+  private static boolean isEmpty(Element description) {
+    if (first(description.getChildNodes()) != null) return false;
+    for (int a = 0; a < description.getAttributes().getLength(); a++) {
+      Node attribute = description.getAttributes().item(a);
+      boolean declaration = XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI());
+      boolean about = RDF.equals(attribute.getNamespaceURI()) && "about".equals(attribute.getLocalName());
+      if (!declaration && !about) return false;
+    }
+    return true;
+  }
+
+  private static boolean isFacturxNamespace(String uri) {
+    return uri != null && (uri.startsWith("urn:factur-x:pdfa:") || uri.startsWith("urn:zugferd:pdfa:")
+        || uri.startsWith("urn:ferd:pdfa:"));
+  }
+
+  private static DocumentBuilder builder() throws ParserConfigurationException {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+    return factory.newDocumentBuilder();
+  }
+
+  private static Element first(NodeList nodes) {
+    for (int i = 0; i < nodes.getLength(); i++) {
+      Node n = nodes.item(i);
+      if (n instanceof Element e) return e;
+    }
+    return null;
+  }
+}
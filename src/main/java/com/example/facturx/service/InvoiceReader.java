@@ -0,0 +1,43 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Liest InvoiceDTO-JSON über einen einmalig vorbereiteten {@link ObjectReader}.
+ *
+ * Der Reader basiert auf dem von Spring Boot konfigurierten ObjectMapper und hält die
+ * Deserializer für InvoiceDTO und seine Unterklassen für die gesamte Laufzeit.
+ */
+@Component
+public class InvoiceReader {
+
+  private final ObjectReader reader;
+  private final BuildMetrics metrics;
+
+  public InvoiceReader(ObjectMapper objectMapper, BuildMetrics metrics) {
+    this.reader = objectMapper.readerFor(InvoiceDTO.class);
+    this.metrics = metrics;
+  }
+
+  /** Parst direkt vom Stream, ohne Zwischenkopie als String. */
+  public InvoiceDTO read(InputStream json) throws IOException {
+    Timer.Sample sample = metrics.start();
+    InvoiceDTO invoice = reader.readValue(json);
+    metrics.stop(sample, BuildMetrics.Stage.JSON_PARSE);
+    return invoice;
+  }
+
+  public InvoiceDTO read(byte[] json) throws IOException {
+    Timer.Sample sample = metrics.start();
+    InvoiceDTO invoice = reader.readValue(json);
+    metrics.stop(sample, BuildMetrics.Stage.JSON_PARSE);
+    return invoice;
+  }
+}
@@ -0,0 +1,73 @@
+package com.example.facturx.service;
+
+import java.util.Locale;
+import java.util.MissingResourceException;
+
+/**
+ * ISO-3166-1 alpha-2 and alpha-3 codes as known to the JDK.
+ *
+ * Codes are looked up through perfect-hash arrays indexed by the letters themselves
+ * (26² slots for alpha-2, 26³ for alpha-3), so a lookup never allocates.
+ */
+final class IsoCountries {
+
+    private static final String[] ALPHA2 = new String[26 * 26];
+    private static final String[] ALPHA3 = new String[26 * 26 * 26];
+
+    static {
+        for (String alpha2 : Locale.getISOCountries()) {
+            ALPHA2[index(alpha2, 0, 2)] = alpha2;
+            try {
+                String alpha3 = new Locale("", alpha2).getISO3Country();
+                if (alpha3.length() == 3) {
+                    ALPHA3[index(alpha3, 0, 3)] = alpha2;
+                }
+            } catch (MissingResourceException e) {
+                // No alpha-3 code known for this country
+            }
+        }
+    }
+
+    private IsoCountries() {
+    }
+
+    /**
+     * Returns the alpha-2 code if {@code s[from, to)} is an alpha-2 or alpha-3 code (either case),
+     * otherwise {@code null}.
+     */
+    static String toAlpha2(CharSequence s, int from, int to) {
+        int len = to - from;
+        if (len != 2 && len != 3) {
+            return null;
+        }
+        int idx = index(s, from, to);
+        if (idx < 0) {
+            return null;
+        }
+        return len == 2 ? ALPHA2[idx] : ALPHA3[idx];
+    }
+
+    /** Whether {@code code} is a known ISO-3166-1 alpha-2 code (upper case). */
+    static boolean isAlpha2(String code) {
+        if (code == null || code.length() != 2) {
+            return false;
+        }
+        int idx = index(code, 0, 2);
+        return idx >= 0 && code.equals(ALPHA2[idx]);
+    }
+
+    private static int index(CharSequence s, int from, int to) {
+        int idx = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            idx = idx * 26 + (c - 'A');
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchrone Factur-X-Erzeugung.
+ *
+ * {@link #submit} übernimmt Rechnung und PDF, legt einen Job an und kehrt sofort zurück. Ein
+ * begrenzter Worker-Pool ruft den FacturxService auf und schreibt das Ergebnis in einen
+ * {@link ResultStore}. Jobs und Ergebnisse verfallen nach {@code facturx.jobs.result-ttl}.
+ */
+@Service
+public class JobService {
+
+  private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+  public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+  /** Status eines Jobs, so wie ihn die API ausliefert. */
+  public record JobStatus(String jobId, State status, String error, Instant createdAt, Instant finishedAt) {}
+
+  private static final class Job {
+    final String id;
+    final Instant createdAt = Instant.now();
+    volatile State state = State.QUEUED;
+    volatile String error;
+    volatile Instant finishedAt;
+
+    Job(String id) { this.id = id; }
+
+    JobStatus status() { return new JobStatus(id, state, error, createdAt, finishedAt); }
+  }
+
+  @Autowired
+  private FacturxService facturxService;
+
+  @Autowired
+  private ExportAdmission admission;
+
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor workers;
+  private final ResultStore store;
+  private final Duration ttl;
+  private final long retryAfterSeconds;
+
+  public JobService(MeterRegistry registry,
+                    @Value("${facturx.jobs.threads:0}") int threads,
+                    @Value("${facturx.jobs.queue-capacity:1000}") int queueCapacity,
+                    @Value("${facturx.jobs.store-dir:${java.io.tmpdir}/facturx-results}") Path storeDir,
+                    @Value("${facturx.jobs.store-max-size:2GB}") DataSize storeMaxSize,
+                    @Value("${facturx.jobs.result-ttl:30m}") Duration ttl,
+                    @Value("${facturx.admission.retry-after:5s}") Duration retryAfter) throws IOException {
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.workers = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("fx-job-"));
+    this.store = new ResultStore(storeDir, storeMaxSize.toBytes(), ttl);
+    this.ttl = ttl;
+    this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+
+    Gauge.builder("facturx.jobs.queued", workers, w -> w.getQueue().size()).register(registry);
+    Gauge.builder("facturx.jobs.store.bytes", store, ResultStore::totalBytes).baseUnit("bytes").register(registry);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    workers.shutdownNow();
+  }
+
+  /**
+   * Übernimmt das PDF als Temp-Datei und reiht den Job ein.
+   *
+   * @throws AdmissionRejectedException wenn die Job-Warteschlange voll ist
+   */
+  public JobStatus submit(InvoiceDTO dto, MultipartFile pdf) throws IOException {
+    Job job = new Job(UUID.randomUUID().toString());
+    // Wartende Jobs halten ihr PDF auf der Platte: 1000 Jobs à 16 MB im Heap würden die Admission umgehen
+    PdfSource src = facturxService.ingestToDisk(pdf);
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    jobs.put(job.id, job);
+    try {
+      workers.execute(() -> run(job, dto, src, mdc));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(job.id);
+      src.close();
+      throw new AdmissionRejectedException(AdmissionRejectedException.Reason.QUEUE_FULL, retryAfterSeconds);
+    }
+    log.debug("Job {} queued", job.id);
+    return job.status();
+  }
+
+  /** @return Status oder {@code null}, wenn der Job unbekannt oder bereits verfallen ist */
+  public JobStatus status(String jobId) {
+    Job job = jobs.get(jobId);
+    return job != null ? job.status() : null;
+  }
+
+  /**
+   * Öffnet das fertige PDF. Bis der Aufrufer den Stream schließt, wird die Datei weder verdrängt
+   * noch nach Ablauf gelöscht.
+   *
+   * @return das Ergebnis oder {@code null}, solange es (noch) keins gibt
+   */
+  public ResultStore.StoredResult openResult(String jobId) throws IOException {
+    Job job = jobs.get(jobId);
+    return job != null && job.state == State.DONE ? store.open(jobId) : null;
+  }
+
+  private void run(Job job, InvoiceDTO dto, PdfSource src, Map<String, String> mdc) {
+    if (mdc != null) MDC.setContextMap(mdc);
+    job.state = State.RUNNING;
+    try (src;
+         ExportAdmission.Permit permit = admission.acquireBlocking();
+         FacturxExport export = facturxService.prepare(dto, src)) {
+      try (OutputStream out = store.create(job.id)) {
+        export.writeTo(out);
+      }
+      store.commit(job.id);
+      job.state = State.DONE;
+      log.debug("Job {} done", job.id);
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+      store.discard(job.id);
+      job.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+      job.state = State.FAILED;
+      log.warn("Job {} failed: {}", job.id, job.error);
+    } finally {
+      job.finishedAt = Instant.now();
+      MDC.clear();
+    }
+  }
+
+  /** Entfernt verfallene Jobs und Ergebnisse. */
+  @Scheduled(fixedDelayString = "${facturx.jobs.eviction-interval:60s}")
+  public void evictExpired() {
+    store.evictExpired();
+    Instant cutoff = Instant.now().minus(ttl);
+    jobs.values().removeIf(j -> j.finishedAt != null && j.finishedAt.isBefore(cutoff));
+  }
+}
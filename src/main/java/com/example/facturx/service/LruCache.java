@@ -0,0 +1,37 @@
+package com.example.facturx.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Kleiner, thread-sicherer LRU-Cache mit fester Maximalgröße.
+ */
+public final class LruCache<K, V> {
+
+  private final Map<K, V> map;
+
+  public LruCache(int maxEntries) {
+    this.map = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public synchronized V get(K key) {
+    return map.get(key);
+  }
+
+  public synchronized void put(K key, V value) {
+    map.put(key, value);
+  }
+
+  public synchronized void clear() {
+    map.clear();
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+}
@@ -0,0 +1,16 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+  /** Begrenzt die Kardinalität des sender-Tags; weitere Absender werden nicht mehr einzeln erfasst. */
+  @Bean
+  public MeterFilter senderTagLimit(@Value("${facturx.metrics.max-senders:1000}") int maxSenders) {
+    return MeterFilter.maximumAllowableTags(BuildMetrics.EXPORTER_SELECTED, "sender", maxSenders, MeterFilter.deny());
+  }
+}
@@ -0,0 +1,145 @@
+package com.example.facturx.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Leichtgewichtige PDF/A-Erkennung ohne PDFBox-Parse.
+ *
+ * Sucht im Rohinhalt des PDFs nach der PDF/A-Kennung im XMP-Metadatenpaket
+ * ({@code pdfaid:part} und {@code pdfaid:conformance}). PDF/A verlangt unkomprimierte
+ * XMP-Metadaten, daher reicht eine Byte-Suche; eine Fehlerkennung fängt der Fallback
+ * auf ZUGFeRDExporterFromA3 im FacturxService ab. Aus demselben XMP-Paket werden
+ * {@code pdf:Producer} und {@code xmp:CreatorTool} gelesen, die das erzeugende Programm benennen.
+ */
+public final class PdfAConformanceProbe {
+
+  private static final byte[] PART = "pdfaid:part".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CONFORMANCE = "pdfaid:conformance".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PRODUCER = "pdf:Producer".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CREATOR_TOOL = "xmp:CreatorTool".getBytes(StandardCharsets.US_ASCII);
+
+  /** Suchbereich um {@code pdfaid:part}, in dem die übrigen Werte desselben XMP-Pakets erwartet werden. */
+  private static final int PACKET_WINDOW = 4096;
+
+  /** Puffergröße beim Lesen ausgelagerter PDFs; die Überlappung deckt Treffer an Puffergrenzen ab. */
+  private static final int CHUNK = 1 << 20;
+  private static final int OVERLAP = 128;
+
+  /**
+   * Erkannte PDF/A-Kennung, z.B. part=3, conformance="B".
+   *
+   * @param producer {@code pdf:Producer} und {@code xmp:CreatorTool} als {@code producer|creator},
+   *                 {@code null}, wenn keiner der beiden im XMP-Paket steht
+   */
+  public record Conformance(int part, String conformance, String producer) {
+
+    /** ZUGFeRDExporterFromPDFA verarbeitet nur PDF/A-1 und PDF/A-3. */
+    public boolean supportedByPdfAExporter() {
+      return part == 1 || part == 3;
+    }
+  }
+
+  private PdfAConformanceProbe() {}
+
+  /** @return die erkannte Kennung oder {@code null}, wenn das PDF sich nicht als PDF/A ausweist */
+  public static Conformance probe(PdfSource src) throws IOException {
+    if (src.inMemory()) {
+      return probe(src.bytes(), src.bytes().length);
+    }
+    try (InputStream in = Files.newInputStream(src.path())) {
+      byte[] buf = new byte[CHUNK + OVERLAP];
+      int carry = 0;
+      int n;
+      while ((n = in.readNBytes(buf, carry, CHUNK)) > 0) {
+        int len = carry + n;
+        Conformance c = probe(buf, len);
+        if (c != null) {
+          return c;
+        }
+        carry = Math.min(OVERLAP, len);
+        System.arraycopy(buf, len - carry, buf, 0, carry);
+      }
+      return null;
+    }
+  }
+
+  /** Prüft das XMP eines bereits geladenen Dokuments. */
+  static Conformance probe(PDDocument doc) throws IOException {
+    PDMetadata metadata = doc.getDocumentCatalog().getMetadata();
+    if (metadata == null) {
+      return null;
+    }
+    try (InputStream in = metadata.exportXMPMetadata()) {
+      byte[] xmp = in.readAllBytes();
+      return probe(xmp, xmp.length);
+    }
+  }
+
+  static Conformance probe(byte[] data, int len) {
+    int at = indexOf(data, len, PART, 0);
+    if (at < 0) {
+      return null;
+    }
+    String part = valueAfter(data, len, at + PART.length, 8);
+    if (part == null || part.length() != 1 || !Character.isDigit(part.charAt(0))) {
+      return null;
+    }
+    int from = Math.max(0, at - PACKET_WINDOW);
+    int to = Math.min(len, at + PACKET_WINDOW);
+    int confAt = indexOf(data, to, CONFORMANCE, from);
+    String conformance = confAt >= 0 ? valueAfter(data, len, confAt + CONFORMANCE.length, 8) : null;
+    String producer = textAfter(data, len, indexOf(data, to, PRODUCER, from), PRODUCER);
+    String creator = textAfter(data, len, indexOf(data, to, CREATOR_TOOL, from), CREATOR_TOOL);
+    String key = producer == null && creator == null ? null
+        : (producer != null ? producer : "") + "|" + (creator != null ? creator : "");
+    return new Conformance(part.charAt(0) - '0', conformance, key);
+  }
+
+  private static String textAfter(byte[] data, int len, int at, byte[] name) {
+    if (at < 0) return null;
+    String value = valueAfter(data, len, at + name.length, 256);
+    return value == null || value.isEmpty() ? null : value;
+  }
+
+  /** Liest den Wert nach {@code ="x"}, {@code ='x'} oder {@code >x<}, höchstens {@code max} Bytes. */
+  private static String valueAfter(byte[] data, int len, int from, int max) {
+    int i = from;
+    while (i < len && (data[i] == ' ' || data[i] == '\r' || data[i] == '\n' || data[i] == '\t')) i++;
+    if (i >= len) return null;
+    byte end;
+    if (data[i] == '=') {
+      i++;
+      while (i < len && data[i] == ' ') i++;
+      if (i >= len || (data[i] != '"' && data[i] != '\'')) return null;
+      end = data[i++];
+    } else if (data[i] == '>') {
+      i++;
+      end = '<';
+    } else {
+      return null;
+    }
+    int start = i;
+    while (i < len && data[i] != end && i - start < max) i++;
+    if (i >= len || data[i] != end) return null;
+    return new String(data, start, i - start, StandardCharsets.UTF_8).trim();
+  }
+
+  private static int indexOf(byte[] data, int len, byte[] needle, int from) {
+    byte first = needle[0];
+    int last = len - needle.length;
+    for (int i = from; i <= last; i++) {
+      if (data[i] == first
+          && Arrays.equals(data, i, i + needle.length, needle, 0, needle.length)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,56 @@
+package com.example.facturx.service;
+
+import jakarta.activation.FileDataSource;
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.mustangproject.ZUGFeRD.ZUGFeRDExporterFromA3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Unveränderliche Ressourcen der PDF/A-3-Konvertierung, einmal je JVM geladen.
+ *
+ * Font-Metriken: die AFM-Daten der Standard-14-Fonts und der System-Font-Mapper von PDFBox werden
+ * beim Start statt beim ersten Export geladen (PDFBox cached sie danach selbst). Den sRGB-Output-
+ * Intent setzt weiterhin Mustang selbst, samt seiner Prüfung auf einen vorhandenen Output Intent.
+ */
+@Component
+public class PdfAResources {
+
+  private static final Logger log = LoggerFactory.getLogger(PdfAResources.class);
+
+  public PdfAResources() throws IOException {
+    long start = System.nanoTime();
+    for (Standard14Fonts.FontName font : Standard14Fonts.FontName.values()) {
+      new PDType1Font(font);
+    }
+    FontMappers.instance().getFontBoxFont("Helvetica", null);
+    log.debug("Preloaded PDF font metrics in {} ms", (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /** {@link ZUGFeRDExporterFromA3}, das ausgelagerte PDFs nach der {@link PdfMemoryPolicy} lädt. */
+  static final class A3Exporter extends ZUGFeRDExporterFromA3 {
+
+    private final PdfMemoryPolicy memory;
+
+    A3Exporter(PdfMemoryPolicy memory) {
+      this.memory = memory;
+    }
+
+    /**
+     * Dateipfad = ausgelagertes PDF: Mixed-Modus statt komplett in den Heap. Die Gültigkeitsprüfung
+     * von Mustangs {@code load(String)} läuft wie dort vor dem Laden.
+     */
+    @Override
+    public ZUGFeRDExporterFromA3 load(String pdfFilename) throws IOException {
+      ensurePDFIsValid(new FileDataSource(pdfFilename));
+      doc = memory.loadMixed(Path.of(pdfFilename));
+      return this;
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.example.facturx.service;
+
+/**
+ * Das Quell-PDF passt nicht in das Speicherbudget je Request ({@code facturx.pdf-memory.budget},
+ * Heap und Scratch-Datei zusammen): entweder schon vor dem Laden zu groß oder beim vorgezogenen
+ * Export übergelaufen. In beiden Fällen ist die Antwort noch offen; der Controller antwortet mit 413.
+ */
+public class PdfBudgetExceededException extends RuntimeException {
+
+  private final long size;
+  private final long budget;
+
+  public PdfBudgetExceededException(long size, long budget) {
+    this(String.format("Source PDF of %d MB exceeds the per-request memory budget of %d MB",
+        size >> 20, budget >> 20), size, budget);
+  }
+
+  public PdfBudgetExceededException(String message, long size, long budget) {
+    super(message);
+    this.size = size;
+    this.budget = budget;
+  }
+
+  public long getSize() { return size; }
+
+  public long getBudget() { return budget; }
+}
@@ -0,0 +1,107 @@
+package com.example.facturx.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Speicherpolitik für das Laden der Quell-PDFs in PDFBox.
+ *
+ * PDFs bis {@code facturx.ingest.spill-threshold} liegen ohnehin im Speicher und werden dort
+ * geladen. Ausgelagerte (größere) PDFs lädt der A3-Exporter im Mixed-Modus: PDFBox puffert bis
+ * {@code facturx.pdf-memory.main-memory} im Heap und schreibt darüber hinaus in eine Scratch-Datei
+ * unter {@code facturx.pdf-memory.scratch-dir}. Heap und Scratch zusammen sind je Request auf
+ * {@code facturx.pdf-memory.budget} begrenzt; PDFs, die schon größer sind, werden vor dem Laden
+ * mit {@link PdfBudgetExceededException} abgelehnt.
+ *
+ * Ob das Budget reicht, zeigt sich erst beim Export, wenn PDFBox die Scratch-Datei füllt;
+ * {@link #prerender} zieht ihn deshalb für Quellen über {@code facturx.pdf-memory.prerender-above}
+ * vor die Antwort. Kleinere Quellen werden direkt in die Antwort gestreamt.
+ *
+ * ZUGFeRDExporterFromPDFA kennt keinen Mixed-Modus und lädt das PDF komplett in den Heap;
+ * {@link #checkHeapLoad} begrenzt ausgelagerte PDFs auf diesem Weg auf {@code main-memory}.
+ */
+@Component
+public class PdfMemoryPolicy {
+
+  /** Meldung von PDFBox' {@code ScratchFile}, wenn {@code maxStorage} erreicht ist. */
+  private static final String SCRATCH_EXHAUSTED = "Maximum allowed scratch file memory exceeded";
+
+  private final long mainMemory;
+  private final long budget;
+  private final long prerenderAbove;
+  private final Path scratchDir;
+
+  public PdfMemoryPolicy(@Value("${facturx.pdf-memory.main-memory:32MB}") DataSize mainMemory,
+                         @Value("${facturx.pdf-memory.budget:256MB}") DataSize budget,
+                         @Value("${facturx.pdf-memory.prerender-above:0}") DataSize prerenderAbove,
+                         @Value("${facturx.pdf-memory.scratch-dir:${java.io.tmpdir}/facturx-scratch}") String scratchDir)
+      throws IOException {
+    this.mainMemory = mainMemory.toBytes();
+    this.budget = budget.toBytes();
+    // 0 = halbes Budget: darunter passt selbst eine vollständige Kopie jedes Streams noch zweimal hinein
+    this.prerenderAbove = prerenderAbove.toBytes() > 0 ? prerenderAbove.toBytes() : this.budget / 2;
+    this.scratchDir = Files.createDirectories(Path.of(scratchDir));
+  }
+
+  /** Lehnt Quell-PDFs ab, die allein schon das Budget je Request übersteigen. */
+  public void checkBudget(PdfSource src) {
+    if (src.size() > budget) {
+      throw new PdfBudgetExceededException(src.size(), budget);
+    }
+  }
+
+  /**
+   * Lehnt ausgelagerte PDFs über {@code main-memory} ab, bevor ZUGFeRDExporterFromPDFA sie
+   * vollständig in den Heap lädt (413 statt OutOfMemoryError).
+   */
+  void checkHeapLoad(PdfSource src) {
+    if (!src.inMemory() && src.size() > mainMemory) {
+      throw new PdfBudgetExceededException(String.format(
+          "PDF/A source of %d MB exceeds the per-request heap share of %d MB (loaded without scratch file)",
+          src.size() >> 20, mainMemory >> 20), src.size(), mainMemory);
+    }
+  }
+
+  /**
+   * Exportiert ein im Mixed-Modus geladenes PDF über {@code prerender-above} vorab in eine Datei im
+   * Scratch-Verzeichnis. Läuft PDFBox dabei über das Budget, wird daraus eine
+   * {@link PdfBudgetExceededException}, solange der Controller noch mit 413 antworten kann, statt
+   * eines abgeschnittenen PDFs nach einem 200. Alle anderen Exporte bleiben unverändert und
+   * streamen später direkt in die Antwort.
+   */
+  void prerender(FacturxExport export, PdfSource src) throws IOException {
+    if (src.inMemory() || src.size() <= prerenderAbove) return;
+    try {
+      export.prerender(scratchDir);
+    } catch (IOException e) {
+      if (scratchExhausted(e)) {
+        throw new PdfBudgetExceededException(String.format(
+            "Export of a %d MB source PDF exceeds the per-request memory budget of %d MB",
+            src.size() >> 20, budget >> 20), src.size(), budget);
+      }
+      throw e;
+    }
+  }
+
+  private static boolean scratchExhausted(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t.getMessage() != null && t.getMessage().startsWith(SCRATCH_EXHAUSTED)) return true;
+    }
+    return false;
+  }
+
+  /** Lädt ein ausgelagertes PDF im Mixed-Modus (Heap bis main-memory, dann Scratch-Datei). */
+  PDDocument loadMixed(Path pdf) throws IOException {
+    MemoryUsageSetting setting = MemoryUsageSetting.setupMixed(Math.min(mainMemory, budget), budget)
+        .setTempDir(scratchDir.toFile());
+    return Loader.loadPDF(pdf.toFile(), setting.streamCache);
+  }
+}
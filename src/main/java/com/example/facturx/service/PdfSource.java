@@ -0,0 +1,94 @@
+package com.example.facturx.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Eingangs-PDF für den Export.
+ *
+ * Bis zum Spill-Schwellwert bleibt das PDF als byte[] im Speicher und wird direkt an die
+ * byte[]-Overloads der Mustang-Exporter übergeben. Größere PDFs werden einmalig in eine
+ * temporäre Datei gestreamt, die beim {@link #close()} wieder gelöscht wird.
+ */
+public final class PdfSource implements Closeable {
+
+  private final byte[] bytes;
+  private final Path file;
+  private final long size;
+  private String sha256;
+
+  private PdfSource(byte[] bytes, Path file, long size) {
+    this.bytes = bytes;
+    this.file = file;
+    this.size = size;
+  }
+
+  public static PdfSource fromBytes(byte[] bytes) {
+    return new PdfSource(bytes, null, bytes.length);
+  }
+
+  public static PdfSource fromMultipart(MultipartFile upload, long spillThreshold) throws IOException {
+    long size = upload.getSize();
+    if (size <= spillThreshold) {
+      return fromBytes(upload.getBytes());
+    }
+    Path tmp = Files.createTempFile("fx-src-", ".pdf");
+    try {
+      upload.transferTo(tmp);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    return new PdfSource(null, tmp, size);
+  }
+
+  public boolean inMemory() { return bytes != null; }
+
+  /** Nur gültig wenn {@link #inMemory()}. */
+  public byte[] bytes() { return bytes; }
+
+  /** Nur gültig wenn nicht {@link #inMemory()}. */
+  public Path path() { return file; }
+
+  public long size() { return size; }
+
+  /** SHA-256 des Inhalts (hex), beim ersten Aufruf berechnet. */
+  public synchronized String sha256() throws IOException {
+    if (sha256 == null) {
+      MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      if (bytes != null) {
+        digest.update(bytes);
+      } else {
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+          int n;
+          while ((n = in.read(buf)) > 0) {
+            digest.update(buf, 0, n);
+          }
+        }
+      }
+      sha256 = HexFormat.of().formatHex(digest.digest());
+    }
+    return sha256;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,343 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Optionaler Ergebnis-Cache für {@code /api/build}, damit Wiederholungen desselben Requests
+ * (Retries nach Timeouts) Mustang nicht erneut durchlaufen.
+ *
+ * Schlüssel ist ein SHA-256 über das kanonisch serialisierte InvoiceDTO und den Inhalts-Hash des
+ * Quell-PDFs. Kleine Ergebnisse liegen zusätzlich im Speicher (LRU, nach Bytes begrenzt), alle
+ * Ergebnisse in einem {@link ResultStore} auf der Platte; beide Stufen verfallen nach
+ * {@code facturx.result-cache.ttl}. Gleichzeitige identische Requests werden über
+ * {@link #claim(String)} zu einer Berechnung zusammengefasst; ein {@code Idempotency-Key} wird an
+ * den Inhalt gebunden und darf nicht für einen anderen Request wiederverwendet werden.
+ */
+@Service
+public class ResultCache {
+
+  private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+  private record MemoryEntry(byte[] bytes, Instant createdAt) {}
+
+  private final boolean enabled;
+  private final ObjectWriter canonicalWriter;
+  private final long memoryMaxBytes;
+  private final long memoryMaxEntryBytes;
+  private final Duration ttl;
+  private final Duration inFlightWait;
+  private final ResultStore store;
+
+  /** Zugriffsreihenfolge für LRU; Zugriff nur unter {@code synchronized (memory)}. */
+  private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes;
+
+  private final LruCache<String, String> idempotencyKeys;
+  private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+  private final Counter hitMemory;
+  private final Counter hitDisk;
+  private final Counter miss;
+  private final Counter collapsed;
+
+  public ResultCache(ObjectMapper objectMapper,
+                     MeterRegistry registry,
+                     @Value("${facturx.result-cache.enabled:false}") boolean enabled,
+                     @Value("${facturx.result-cache.memory-max-size:64MB}") DataSize memoryMaxSize,
+                     @Value("${facturx.result-cache.memory-max-entry-size:4MB}") DataSize memoryMaxEntrySize,
+                     @Value("${facturx.result-cache.store-dir:${java.io.tmpdir}/facturx-result-cache}") Path storeDir,
+                     @Value("${facturx.result-cache.store-max-size:1GB}") DataSize storeMaxSize,
+                     @Value("${facturx.result-cache.ttl:10m}") Duration ttl,
+                     @Value("${facturx.result-cache.in-flight-wait:60s}") Duration inFlightWait,
+                     @Value("${facturx.result-cache.idempotency-keys:10000}") int idempotencyKeys) throws IOException {
+    this.enabled = enabled;
+    this.canonicalWriter = objectMapper.writerFor(InvoiceDTO.class).with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    this.memoryMaxBytes = memoryMaxSize.toBytes();
+    this.memoryMaxEntryBytes = memoryMaxEntrySize.toBytes();
+    this.ttl = ttl;
+    this.inFlightWait = inFlightWait;
+    this.store = enabled ? new ResultStore(storeDir, storeMaxSize.toBytes(), ttl) : null;
+    this.idempotencyKeys = new LruCache<>(idempotencyKeys);
+
+    this.hitMemory = Counter.builder("facturx.result.cache").tag("result", "hit_memory").register(registry);
+    this.hitDisk = Counter.builder("facturx.result.cache").tag("result", "hit_disk").register(registry);
+    this.miss = Counter.builder("facturx.result.cache").tag("result", "miss").register(registry);
+    this.collapsed = Counter.builder("facturx.result.cache").tag("result", "collapsed").register(registry);
+    if (enabled) {
+      Gauge.builder("facturx.result.cache.bytes", this, c -> c.memoryBytes()).tag("tier", "memory").baseUnit("bytes").register(registry);
+      Gauge.builder("facturx.result.cache.bytes", store, ResultStore::totalBytes).tag("tier", "disk").baseUnit("bytes").register(registry);
+    }
+  }
+
+  public boolean enabled() {
+    return enabled;
+  }
+
+  /** Stabiler Schlüssel aus kanonischem Rechnungs-JSON und Inhalts-Hash des Quell-PDFs. */
+  public String key(InvoiceDTO invoice, PdfSource pdf) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      canonicalWriter.writeValue(out, invoice);
+    }
+    digest.update((byte) 0);
+    digest.update(pdf.sha256().getBytes(StandardCharsets.US_ASCII));
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Bindet einen Idempotency-Key an den Inhalt eines Requests.
+   *
+   * @return {@code false}, wenn der Key bereits für einen anderen Inhalt verwendet wurde
+   */
+  public boolean bindIdempotencyKey(String idempotencyKey, String key) {
+    synchronized (idempotencyKeys) {
+      String bound = idempotencyKeys.get(idempotencyKey);
+      if (bound == null) {
+        idempotencyKeys.put(idempotencyKey, key);
+        return true;
+      }
+      return bound.equals(key);
+    }
+  }
+
+  /** Öffnet ein gespeichertes Ergebnis, {@code null} wenn es keins (mehr) gibt. */
+  public InputStream open(String key) throws IOException {
+    synchronized (memory) {
+      MemoryEntry e = memory.get(key);
+      if (e != null) {
+        if (e.createdAt().plus(ttl).isAfter(Instant.now())) {
+          hitMemory.increment();
+          return new ByteArrayInputStream(e.bytes());
+        }
+        memory.remove(key);
+        memoryBytes -= e.bytes().length;
+      }
+    }
+    // Bis zum Schließen des Streams löscht der Store die Datei nicht, auch wenn sie verdrängt wird
+    InputStream in = store.open(key);
+    if (in != null) {
+      hitDisk.increment();
+      return in;
+    }
+    miss.increment();
+    return null;
+  }
+
+  /**
+   * Meldet eine Berechnung für {@code key} an. Ist schon eine angemeldet, wartet der Aufrufer mit
+   * {@link Claim#await()} auf sie; sonst rechnet er selbst und gibt die Anmeldung mit
+   * {@link Claim#close()} frei, auch wenn die Berechnung scheitert.
+   */
+  public Claim claim(String key) {
+    CompletableFuture<Void> mine = new CompletableFuture<>();
+    CompletableFuture<Void> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      collapsed.increment();
+      return new Claim(key, running, false);
+    }
+    return new Claim(key, mine, true);
+  }
+
+  /**
+   * Anmeldung einer Berechnung. Nur der Rechnende gibt frei, und nur seine eigene Anmeldung: ein
+   * verspätetes {@link #close()} weckt nicht die Wartenden einer späteren Berechnung.
+   */
+  public final class Claim implements AutoCloseable {
+
+    private final String key;
+    private final CompletableFuture<Void> signal;
+    private final boolean leader;
+
+    private Claim(String key, CompletableFuture<Void> signal, boolean leader) {
+      this.key = key;
+      this.signal = signal;
+      this.leader = leader;
+    }
+
+    /** Ob der Aufrufer rechnet (statt auf eine laufende Berechnung zu warten). */
+    public boolean leader() {
+      return leader;
+    }
+
+    /** Wartet höchstens {@code facturx.result-cache.in-flight-wait} auf die laufende Berechnung. */
+    public void await() throws InterruptedException {
+      try {
+        signal.get(inFlightWait.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        // Danach ohne Cache weiterrechnen
+      }
+    }
+
+    @Override
+    public void close() {
+      if (leader && inFlight.remove(key, signal)) {
+        signal.complete(null);
+      }
+    }
+  }
+
+  /**
+   * Schreibt die Ausgabe nach {@code downstream} und zugleich in den Cache. Fehler beim Schreiben
+   * in den Cache brechen den Request nicht ab, das Ergebnis wird dann nur nicht gespeichert.
+   */
+  public Recording record(String key, OutputStream downstream) {
+    return new Recording(key, downstream);
+  }
+
+  public final class Recording extends OutputStream {
+
+    private final String key;
+    private final OutputStream downstream;
+    private OutputStream file;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private boolean committed;
+
+    private Recording(String key, OutputStream downstream) {
+      this.key = key;
+      this.downstream = downstream;
+      try {
+        this.file = store.create(key);
+      } catch (IOException e) {
+        log.warn("Result cache unavailable for {}: {}", key, e.getMessage());
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      downstream.write(b, off, len);
+      if (file != null) {
+        try {
+          file.write(b, off, len);
+        } catch (IOException e) {
+          log.warn("Result cache write failed for {}: {}", key, e.getMessage());
+          abandonFile();
+        }
+      }
+      if (buffer != null) {
+        if (buffer.size() + len > memoryMaxEntryBytes) {
+          buffer = null;
+        } else {
+          buffer.write(b, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      downstream.flush();
+    }
+
+    /** Macht das vollständig geschriebene Ergebnis abrufbar. */
+    public void commit() {
+      if (file == null) return;
+      try {
+        file.close();
+        file = null;
+        store.commit(key);
+        if (buffer != null) {
+          remember(key, buffer.toByteArray());
+        }
+        committed = true;
+      } catch (IOException e) {
+        log.warn("Result cache commit failed for {}: {}", key, e.getMessage());
+      }
+    }
+
+    /** Verwirft ein unvollständiges Ergebnis; die Anmeldung gibt der {@link Claim} frei. */
+    @Override
+    public void close() {
+      if (!committed) {
+        abandonFile();
+      }
+    }
+
+    private void abandonFile() {
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException ignored) {
+          // wird ohnehin verworfen
+        }
+        file = null;
+      }
+      store.discard(key);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${facturx.result-cache.eviction-interval:60s}")
+  public void evictExpired() {
+    if (!enabled) return;
+    store.evictExpired();
+    Instant cutoff = Instant.now().minus(ttl);
+    synchronized (memory) {
+      for (Iterator<MemoryEntry> it = memory.values().iterator(); it.hasNext(); ) {
+        MemoryEntry e = it.next();
+        if (e.createdAt().isBefore(cutoff)) {
+          it.remove();
+          memoryBytes -= e.bytes().length;
+        }
+      }
+    }
+  }
+
+  private void remember(String key, byte[] bytes) {
+    synchronized (memory) {
+      MemoryEntry previous = memory.put(key, new MemoryEntry(bytes, Instant.now()));
+      memoryBytes += bytes.length - (previous != null ? previous.bytes().length : 0);
+      for (Iterator<MemoryEntry> it = memory.values().iterator(); memoryBytes > memoryMaxBytes && it.hasNext(); ) {
+        memoryBytes -= it.next().bytes().length;
+        it.remove();
+      }
+    }
+  }
+
+  private long memoryBytes() {
+    synchronized (memory) {
+      return memoryBytes;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.example.facturx.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lokaler Ablageort für erzeugte PDFs auf der Platte, begrenzt nach Gesamtgröße und Alter.
+ *
+ * Ergebnisse werden über {@link #create(String)} direkt in eine Datei geschrieben und mit
+ * {@link #commit(String)} sichtbar gemacht. Abgelaufene Einträge entfernt {@link #evictExpired()};
+ * wird die Maximalgröße überschritten, fallen die ältesten Einträge sofort heraus. Das Verzeichnis
+ * gehört dem Store allein: Reste eines früheren Prozesses werden beim Start gelöscht.
+ *
+ * Gelesen wird nur über {@link #open(String)}: solange ein so geöffneter Stream nicht geschlossen
+ * ist, löscht weder Verdrängung noch Ablauf die Datei, sie verschwindet nur aus dem Index. Gelöscht
+ * wird sie dann beim Schließen des letzten Streams.
+ */
+public class ResultStore {
+
+  private static final Logger log = LoggerFactory.getLogger(ResultStore.class);
+
+  private static final class Entry {
+    final Path path;
+    final long size;
+    final Instant createdAt;
+    private int readers;
+    private boolean removed;
+
+    Entry(Path path, long size, Instant createdAt) {
+      this.path = path;
+      this.size = size;
+      this.createdAt = createdAt;
+    }
+
+    /** @return {@code false}, wenn der Eintrag schon entfernt ist */
+    synchronized boolean pin() {
+      if (removed) return false;
+      readers++;
+      return true;
+    }
+
+    /** @return ob die Datei jetzt gelöscht werden darf */
+    synchronized boolean unpin() {
+      return --readers == 0 && removed;
+    }
+
+    /** @return ob die Datei sofort gelöscht werden darf */
+    synchronized boolean markRemoved() {
+      removed = true;
+      return readers == 0;
+    }
+  }
+
+  /** Geöffnetes Ergebnis; hält den Eintrag bis {@link #close()} fest. */
+  public static final class StoredResult extends FilterInputStream {
+    private final ResultStore store;
+    private final Entry entry;
+    private boolean closed;
+
+    private StoredResult(InputStream in, ResultStore store, Entry entry) {
+      super(in);
+      this.store = store;
+      this.entry = entry;
+    }
+
+    public long size() {
+      return entry.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      try {
+        super.close();
+      } finally {
+        store.release(entry);
+      }
+    }
+  }
+
+  private final Path dir;
+  private final long maxBytes;
+  private final Duration ttl;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong totalBytes = new AtomicLong();
+  // Jeder Commit bekommt eine eigene Datei, damit ein erneuter Commit desselben Keys keine noch
+  // gelesene Datei überschreibt
+  private final AtomicLong generation = new AtomicLong();
+
+  public ResultStore(Path dir, long maxBytes, Duration ttl) throws IOException {
+    this.dir = Files.createDirectories(dir);
+    this.maxBytes = maxBytes;
+    this.ttl = ttl;
+    deleteOrphans();
+  }
+
+  /**
+   * Der Index lebt nur im Speicher: Dateien eines früheren Prozesses sind nicht mehr abrufbar und
+   * würden nie verdrängt. Entfernt daher beim Start alle Ergebnis- und Teildateien im Verzeichnis.
+   */
+  private void deleteOrphans() throws IOException {
+    int deleted = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{pdf,part}")) {
+      for (Path file : files) {
+        try {
+          Files.deleteIfExists(file);
+          deleted++;
+        } catch (IOException e) {
+          log.warn("Could not delete orphaned result {}: {}", file, e.getMessage());
+        }
+      }
+    }
+    if (deleted > 0) {
+      log.info("Deleted {} orphaned results from {}", deleted, dir);
+    }
+  }
+
+  /** Öffnet eine noch unsichtbare Zieldatei für {@code key}. */
+  public OutputStream create(String key) throws IOException {
+    return Files.newOutputStream(partFile(key));
+  }
+
+  /** Macht das unter {@code key} geschriebene Ergebnis abrufbar. */
+  public void commit(String key) throws IOException {
+    Path target = dir.resolve(key + "." + generation.incrementAndGet() + ".pdf");
+    Files.move(partFile(key), target, StandardCopyOption.ATOMIC_MOVE);
+    Entry entry = new Entry(target, Files.size(target), Instant.now());
+    totalBytes.addAndGet(entry.size);
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      totalBytes.addAndGet(-previous.size);
+      if (previous.markRemoved()) delete(key, previous);
+    }
+    evictOverCapacity();
+  }
+
+  /** Verwirft eine nicht abgeschlossene Zieldatei. */
+  public void discard(String key) {
+    try {
+      Files.deleteIfExists(partFile(key));
+    } catch (IOException e) {
+      log.warn("Could not delete partial result {}: {}", key, e.getMessage());
+    }
+  }
+
+  /**
+   * Öffnet das Ergebnis zum Lesen. Der Aufrufer muss den Stream schließen, erst dann darf die
+   * Datei gelöscht werden.
+   *
+   * @return das Ergebnis oder {@code null}, wenn unbekannt oder abgelaufen
+   */
+  public StoredResult open(String key) throws IOException {
+    Entry e = entries.get(key);
+    if (e == null) return null;
+    if (isExpired(e, Instant.now())) {
+      remove(key, e);
+      return null;
+    }
+    if (!e.pin()) return null;
+    try {
+      return new StoredResult(Files.newInputStream(e.path), this, e);
+    } catch (IOException | RuntimeException ex) {
+      release(e);
+      throw ex;
+    }
+  }
+
+  private void release(Entry e) {
+    if (e.unpin()) delete(null, e);
+  }
+
+  public long totalBytes() {
+    return totalBytes.get();
+  }
+
+  public void evictExpired() {
+    Instant now = Instant.now();
+    entries.forEach((key, e) -> {
+      if (isExpired(e, now)) remove(key, e);
+    });
+  }
+
+  private boolean isExpired(Entry e, Instant now) {
+    return e.createdAt.plus(ttl).isBefore(now);
+  }
+
+  private void evictOverCapacity() {
+    if (totalBytes.get() <= maxBytes) return;
+    List<Map.Entry<String, Entry>> oldestFirst = entries.entrySet().stream()
+        .sorted(Comparator.comparing(en -> en.getValue().createdAt))
+        .toList();
+    for (Map.Entry<String, Entry> en : oldestFirst) {
+      if (totalBytes.get() <= maxBytes) break;
+      remove(en.getKey(), en.getValue());
+    }
+  }
+
+  private void remove(String key, Entry e) {
+    if (entries.remove(key, e)) {
+      totalBytes.addAndGet(-e.size);
+      if (e.markRemoved()) delete(key, e);
+    }
+  }
+
+  private static void delete(String key, Entry e) {
+    try {
+      Files.deleteIfExists(e.path);
+    } catch (IOException ex) {
+      log.warn("Could not delete stored result {}: {}", key != null ? key : e.path, ex.getMessage());
+    }
+  }
+
+  private Path partFile(String key) {
+    return dir.resolve(key + ".part");
+  }
+}
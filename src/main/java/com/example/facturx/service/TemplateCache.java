@@ -0,0 +1,237 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PDF/A-3-Basis wiederverwendeter Quell-PDFs (Briefbögen, Vorlagen, nach einer Korrektur erneut
+ * gesendete PDFs). Ein Treffer überspringt PDF/A-Prüfung, Laden und Konvertierung durch Mustang;
+ * es wird nur noch die XML eingebettet ({@link IncrementalPdfAExport}).
+ *
+ * Schlüssel ist der SHA-256 des Quell-PDFs. Die Basis ist Mustangs Ergebnis für dieses PDF ohne
+ * die rechnungsbezogenen Teile (eingebettete {@code factur-x.xml}, /AF-Eintrag, Factur-X-XMP) und
+ * vollständig neu geschrieben, sodass von der ersten Rechnung nichts darin bleibt; Info-Dictionary
+ * und Datumsangaben stammen aus dieser ersten Konvertierung. Aufgenommen wird ein PDF erst beim
+ * zweiten Auftreten, damit einmalige PDFs nur den Hash kosten, und nur, wenn es im Speicher liegt
+ * und höchstens {@code facturx.template-cache.max-entry-size} groß ist. LRU, nach Bytes begrenzt.
+ */
+@Component
+public class TemplateCache {
+
+  private static final Logger log = LoggerFactory.getLogger(TemplateCache.class);
+
+  private final long maxBytes;
+  private final long maxEntryBytes;
+
+  /** Zugriffsreihenfolge für LRU; Zugriff nur unter {@code synchronized (bases)}. */
+  private final LinkedHashMap<String, byte[]> bases = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  /** Einmal gesehene Hashes; erst ein zweites Auftreten nimmt das PDF auf. */
+  private final LruCache<String, Boolean> candidates;
+
+  private final Counter hit;
+  private final Counter miss;
+  private final Counter stored;
+
+  public TemplateCache(MeterRegistry registry,
+                       @Value("${facturx.template-cache.max-size:64MB}") DataSize maxSize,
+                       @Value("${facturx.template-cache.max-entry-size:8MB}") DataSize maxEntrySize,
+                       @Value("${facturx.template-cache.candidates:10000}") int candidates) {
+    this.maxBytes = maxSize.toBytes();
+    this.maxEntryBytes = Math.min(maxEntrySize.toBytes(), maxBytes);
+    this.candidates = new LruCache<>(Math.max(1, candidates));
+    this.hit = Counter.builder("facturx.template.cache").tag("result", "hit").register(registry);
+    this.miss = Counter.builder("facturx.template.cache").tag("result", "miss").register(registry);
+    this.stored = Counter.builder("facturx.template.cache").tag("result", "stored").register(registry);
+    Gauge.builder("facturx.template.cache.bytes", this, TemplateCache::bytes).baseUnit("bytes").register(registry);
+  }
+
+  /** Ob das Quell-PDF für den Cache in Frage kommt; nur dann lohnt sein Hash. */
+  public boolean accepts(PdfSource src) {
+    return maxBytes > 0 && src.inMemory() && src.size() <= maxEntryBytes;
+  }
+
+  /** @return die gespeicherte Basis oder {@code null} */
+  public byte[] get(String key) {
+    byte[] base;
+    synchronized (bases) {
+      base = bases.get(key);
+    }
+    (base != null ? hit : miss).increment();
+    return base;
+  }
+
+  /**
+   * Verpackt den Mustang-Export so, dass aus seinem Ergebnis die Basis für {@code key} abgeleitet
+   * wird, sofern das PDF schon einmal gesehen wurde. Sonst wird es nur als Kandidat vermerkt und der
+   * Export unverändert zurückgegeben.
+   */
+  FacturxExport.Writer recording(String key, FacturxExport.Writer export) {
+    synchronized (candidates) {
+      if (candidates.get(key) == null) {
+        candidates.put(key, Boolean.TRUE);
+        return export;
+      }
+    }
+    return new FacturxExport.Writer() {
+      @Override
+      public void export(OutputStream out) throws IOException {
+        Capture capture = new Capture(out);
+        export.export(capture);
+        if (capture.buffer != null) {
+          store(key, capture.buffer.toByteArray());
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        export.close();
+      }
+    };
+  }
+
+  /** Leitet die Basis ab; Fehler kosten nur den Cache-Eintrag, nicht den Request. */
+  private void store(String key, byte[] facturx) {
+    byte[] base;
+    try {
+      base = base(facturx);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not derive template base from export: {}", e.getMessage());
+      return;
+    }
+    if (base == null || base.length > maxEntryBytes) return;
+    synchronized (bases) {
+      byte[] previous = bases.put(key, base);
+      bytes += base.length - (previous != null ? previous.length : 0);
+      for (Iterator<byte[]> it = bases.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+        bytes -= it.next().length;
+        it.remove();
+      }
+    }
+    stored.increment();
+  }
+
+  /**
+   * Entfernt aus einem Factur-X-PDF die eingebettete {@code factur-x.xml}, ihren /AF-Eintrag und
+   * die Factur-X-Eigenschaften im XMP und schreibt das Dokument vollständig neu (nicht mehr
+   * referenzierte Objekte wie der alte XML-Stream entfallen dabei).
+   *
+   * @return {@code null}, wenn das PDF keine {@code factur-x.xml} oder kein XMP enthält
+   */
+  static byte[] base(byte[] facturx) throws IOException {
+    try (PDDocument doc = Loader.loadPDF(facturx)) {
+      PDDocumentCatalog catalog = doc.getDocumentCatalog();
+      PDDocumentNameDictionary names = catalog.getNames();
+      PDEmbeddedFilesNameTreeNode files = names != null ? names.getEmbeddedFiles() : null;
+      Map<String, PDComplexFileSpecification> entries = files != null ? files.getNames() : null;
+      if (entries == null || !entries.containsKey(IncrementalPdfAExport.FILE_NAME) || catalog.getMetadata() == null) {
+        return null;
+      }
+
+      Map<String, PDComplexFileSpecification> remaining = new HashMap<>(entries);
+      remaining.remove(IncrementalPdfAExport.FILE_NAME);
+      if (!remaining.isEmpty()) {
+        files.setNames(remaining);
+      } else {
+        names.setEmbeddedFiles(null);
+        if (names.getCOSObject().size() == 0) {
+          catalog.setNames(null);
+        }
+      }
+
+      COSArray af = catalog.getCOSObject().getCOSArray(COSName.AF);
+      if (af != null) {
+        for (int i = af.size() - 1; i >= 0; i--) {
+          if (isFacturxSpec(af.get(i))) {
+            af.remove(i);
+          }
+        }
+        if (af.size() == 0) {
+          catalog.getCOSObject().removeItem(COSName.AF);
+        }
+      }
+
+      byte[] xmp;
+      try (InputStream in = catalog.getMetadata().exportXMPMetadata()) {
+        xmp = IncrementalPdfAExport.withoutFacturx(in.readAllBytes());
+      }
+      catalog.setMetadata(new PDMetadata(doc, new ByteArrayInputStream(xmp)));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(facturx.length);
+      doc.save(out);
+      return out.toByteArray();
+    }
+  }
+
+  private static boolean isFacturxSpec(COSBase entry) {
+    COSBase spec = entry instanceof COSObject o ? o.getObject() : entry;
+    if (!(spec instanceof COSDictionary dict)) return false;
+    return IncrementalPdfAExport.FILE_NAME.equals(dict.getString(COSName.UF))
+        || IncrementalPdfAExport.FILE_NAME.equals(dict.getString(COSName.F));
+  }
+
+  long bytes() {
+    synchronized (bases) {
+      return bytes;
+    }
+  }
+
+  /** Reicht die Ausgabe durch und behält bis {@code max-entry-size} eine Kopie. */
+  private final class Capture extends FilterOutputStream {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    Capture(OutputStream out) { super(out); }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (buffer != null) {
+        if (buffer.size() + len > maxEntryBytes) {
+          buffer = null;
+        } else {
+          buffer.write(b, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.example.facturx.service;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Netto-, MwSt- und Brutto-Summen je (MwSt-Satz, Kategorie) in Cent.
+ *
+ * Der Schlüssel packt den Satz (Skala 2, z.B. 1900 für 19 %) und bis zu zwei Zeichen des
+ * Kategorie-Codes in einen {@code long}; die Summen liegen in parallelen Arrays mit offener
+ * Adressierung. Rechnungen haben nur eine Handvoll Kategorien, daher bleibt die Tabelle klein.
+ */
+final class VatBreakdown {
+
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private long[] keys = new long[8];
+  private long[] net = new long[8];
+  private long[] lineGross = new long[8];
+  private int size;
+
+  VatBreakdown() {
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+   * Addiert eine Position.
+   *
+   * @param vatRate   MwSt-Satz in Hundertstel-Prozent (Skala 2)
+   * @param category  Kategorie-Code (z.B. "S", "AE"); leer/{@code null} bleibt eine eigene Gruppe
+   *                  ohne Code, wie bei Positionen, deren Code Mustang ableitet
+   * @param netCents  Netto-Positionssumme
+   * @param grossCents Brutto-Positionssumme (positionsweise gerundet)
+   * @throws ArithmeticException bei Überlauf
+   */
+  void add(long vatRate, String category, long netCents, long grossCents) {
+    int slot = slot(key(vatRate, category));
+    net[slot] = Math.addExact(net[slot], netCents);
+    lineGross[slot] = Math.addExact(lineGross[slot], grossCents);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Belegte Slots nach Satz und Kategorie sortiert, für {@link #rate}, {@link #net} usw. */
+  int[] slots() {
+    int[] out = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == EMPTY) continue;
+      int j = n++;
+      while (j > 0 && keys[out[j - 1]] > keys[i]) {
+        out[j] = out[j - 1];
+        j--;
+      }
+      out[j] = i;
+    }
+    return out;
+  }
+
+  BigDecimal rate(int slot) {
+    return BigDecimal.valueOf(vatRate(slot), 2);
+  }
+
+  /** MwSt-Satz in Hundertstel-Prozent. */
+  long vatRate(int slot) {
+    return keys[slot] >> 16;
+  }
+
+  /** @return Kategorie-Code oder {@code null}, wenn die Positionen keinen angegeben haben */
+  String category(int slot) {
+    char c0 = (char) ((keys[slot] >> 8) & 0xFF);
+    char c1 = (char) (keys[slot] & 0xFF);
+    if (c0 == 0) return null;
+    return c1 == 0 ? String.valueOf(c0) : new String(new char[] {c0, c1});
+  }
+
+  long net(int slot) {
+    return net[slot];
+  }
+
+  /** MwSt der Kategorie, auf die Netto-Summe gerechnet (EN 16931: Satz × Bemessungsgrundlage). */
+  long vat(int slot) {
+    return FixedPoint.mulRound(net[slot], vatRate(slot), 4);
+  }
+
+  long gross(int slot) {
+    return Math.addExact(net[slot], vat(slot));
+  }
+
+  /** Summe der positionsweise gerundeten Brutto-Beträge der Kategorie. */
+  long lineGross(int slot) {
+    return lineGross[slot];
+  }
+
+  /** Änderung der Brutto-Summe der Kategorie, wenn ihre Netto-Summe um {@code netCents} wächst. */
+  long grossChange(int slot, long netCents) {
+    long changed = Math.addExact(net[slot], netCents);
+    long gross = Math.addExact(changed, FixedPoint.mulRound(changed, vatRate(slot), 4));
+    return Math.subtractExact(gross, gross(slot));
+  }
+
+  /**
+   * Netto-Betrag, der die Brutto-Summe der Kategorie um {@code grossCents} ändert. Über 0 % ergibt
+   * ein Cent Netto ein oder zwei Cent Brutto, daher ist nicht jede Änderung exakt erreichbar; dann
+   * der nächstliegende Betrag, bei Gleichstand der kleinere (der Rest behält so das Vorzeichen).
+   */
+  long netForGross(int slot, long grossCents) {
+    long guess = FixedPoint.divRound(Math.multiplyExact(grossCents, 10000), Math.addExact(10000, vatRate(slot)));
+    long best = guess;
+    long bestMiss = Math.abs(Math.subtractExact(grossChange(slot, guess), grossCents));
+    for (long n = guess - 1; n <= guess + 1; n++) {
+      long miss = Math.abs(Math.subtractExact(grossChange(slot, n), grossCents));
+      if (miss < bestMiss || (miss == bestMiss && Math.abs(n) < Math.abs(best))) {
+        best = n;
+        bestMiss = miss;
+      }
+    }
+    return best;
+  }
+
+  private static long key(long vatRate, String category) {
+    if (category == null || category.isBlank()) {
+      return vatRate << 16;
+    }
+    String c = category.trim();
+    if (c.length() > 2 || c.charAt(0) == 0 || c.charAt(0) > 0xFF || (c.length() == 2 && c.charAt(1) > 0xFF)) {
+      throw new IllegalArgumentException("Unsupported tax category: " + category);
+    }
+    long chars = ((long) c.charAt(0) << 8) | (c.length() == 2 ? c.charAt(1) : 0);
+    return (vatRate << 16) | chars;
+  }
+
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    int i = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) return i;
+      i = (i + 1) & mask;
+    }
+    if ((size + 1) * 2 > keys.length) {
+      grow();
+      return slot(key);
+    }
+    keys[i] = key;
+    size++;
+    return i;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    long[] oldNet = net;
+    long[] oldGross = lineGross;
+    keys = new long[oldKeys.length * 2];
+    net = new long[keys.length];
+    lineGross = new long[keys.length];
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int s = slot(oldKeys[i]);
+        net[s] = oldNet[i];
+        lineGross[s] = oldGross[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Batch-ZIP: Paarbildung, sichere und eindeutige Ausgabenamen, Manifest und Größenlimits. Mustang
+ * wird durch einen Mock ersetzt, der die Rechnungsnummer als "PDF" zurückgibt.
+ */
+class BatchBuildServiceTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private BatchBuildService service;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    service = new BatchBuildService(2, 0, DataSize.ofKilobytes(1), DataSize.ofKilobytes(4), DataSize.ofKilobytes(64));
+    FacturxService facturx = mock(FacturxService.class);
+    when(facturx.buildFacturX(any(InvoiceDTO.class), any(PdfSource.class))).thenAnswer(call -> {
+      String number = call.<InvoiceDTO>getArgument(0).header.number;
+      if (number.startsWith("FAIL")) throw new IllegalArgumentException("Invalid invoice " + number);
+      return ("PDF " + number).getBytes(StandardCharsets.US_ASCII);
+    });
+    ReflectionTestUtils.setField(service, "facturxService", facturx);
+    ReflectionTestUtils.setField(service, "invoiceReader",
+        new InvoiceReader(objectMapper, new BuildMetrics(new SimpleMeterRegistry())));
+    ReflectionTestUtils.setField(service, "admission",
+        new ExportAdmission(new SimpleMeterRegistry(), 2, DataSize.ofMegabytes(1), 10, Duration.ofSeconds(5), Duration.ofSeconds(1)));
+    ReflectionTestUtils.setField(service, "objectMapper", objectMapper);
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.shutdown();
+  }
+
+  @Test
+  void buildsPairsAndWritesManifest() throws IOException {
+    Map<String, byte[]> out = run(
+        entry("a.json", json("A-1")), entry("b.pdf", pdf()),
+        entry("a.pdf", pdf()), entry("b.json", json("B-1")),
+        entry("notes.txt", "ignored"), entry("c.json", json("FAIL-1")), entry("c.pdf", pdf()));
+
+    assertEquals(Set.of("a.pdf", "b.pdf", "c.error.txt", "manifest.json"), out.keySet());
+    assertEquals("PDF A-1", text(out, "a.pdf"));
+    assertEquals("PDF B-1", text(out, "b.pdf"));
+    assertEquals("Invalid invoice FAIL-1", text(out, "c.error.txt"));
+
+    Map<String, JsonNode> manifest = manifest(out);
+    assertEquals(Set.of("a", "b", "c"), manifest.keySet());
+    assertEquals("ok", manifest.get("a").get("status").asText());
+    assertEquals("a.pdf", manifest.get("a").get("file").asText());
+    assertEquals("error", manifest.get("c").get("status").asText());
+    assertEquals("c.error.txt", manifest.get("c").get("file").asText());
+  }
+
+  @Test
+  void unsafeNamesStayInsideArchive() throws IOException {
+    Map<String, byte[]> out = run(
+        entry("../../etc/x.json", json("X-1")), entry("../../etc/x.pdf", pdf()),
+        entry("/abs/y.json", json("Y-1")), entry("\\abs\\y.pdf", pdf()));
+
+    assertEquals(Set.of("etc/x.pdf", "abs/y.pdf", "manifest.json"), out.keySet());
+    for (String name : out.keySet()) {
+      assertTrue(!name.startsWith("/") && !name.contains(".."), name);
+    }
+  }
+
+  @Test
+  void duplicateNamesGetSuffix() throws IOException {
+    Map<String, byte[]> out = run(
+        entry("a.json", json("A-1")), entry("a.pdf", pdf()),
+        entry("x/../a.json", json("A-2")), entry("x/../a.pdf", pdf()),
+        entry("./a.json", json("A-3")), entry("./a.pdf", pdf()),
+        entry("manifest.json", json("M-1")), entry("manifest.pdf", pdf()));
+
+    assertEquals(Set.of("a.pdf", "a-2.pdf", "x/a.pdf", "manifest.pdf", "manifest.json"), out.keySet());
+    assertEquals(Set.of("PDF A-1", "PDF A-3"), Set.of(text(out, "a.pdf"), text(out, "a-2.pdf")));
+  }
+
+  @Test
+  void missingAndOversizedPartsAreReportedPerPair() throws IOException {
+    Map<String, byte[]> out = run(
+        entry("big.json", json("BIG-1")), entry("big.pdf", "x".repeat(2048)),
+        entry("lonely.json", json("L-1")));
+
+    assertEquals(Set.of("big.error.txt", "lonely.error.txt", "manifest.json"), out.keySet());
+    assertTrue(text(out, "big.error.txt").contains("exceeds 1024 bytes"));
+    assertEquals("Missing pdf part", text(out, "lonely.error.txt"));
+    assertEquals("error", manifest(out).get("lonely").get("status").asText());
+  }
+
+  @Test
+  void archiveOverLimitIsRejected() throws IOException {
+    // Zufallsinhalt, damit das Archiv trotz Kompression über 64 KB liegt
+    Random random = new Random(1);
+    String[][] entries = new String[80][];
+    for (int i = 0; i < entries.length; i++) {
+      byte[] noise = new byte[1024];
+      random.nextBytes(noise);
+      entries[i] = entry("n" + i + ".pdf", Base64.getEncoder().encodeToString(noise));
+    }
+    byte[] zip = zip(entries);
+    IOException e = assertThrows(IOException.class,
+        () -> service.buildBatch(new ByteArrayInputStream(zip), new ByteArrayOutputStream()));
+    assertTrue(e.getMessage().contains("Archive exceeds"), e.getMessage());
+  }
+
+  private Map<String, byte[]> run(String[]... entries) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    service.buildBatch(new ByteArrayInputStream(zip(entries)), out);
+    Map<String, byte[]> result = new LinkedHashMap<>();
+    try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      for (ZipEntry e = zin.getNextEntry(); e != null; e = zin.getNextEntry()) {
+        result.put(e.getName(), zin.readAllBytes());
+      }
+    }
+    return result;
+  }
+
+  private Map<String, JsonNode> manifest(Map<String, byte[]> out) throws IOException {
+    Map<String, JsonNode> byName = new LinkedHashMap<>();
+    for (JsonNode n : objectMapper.readTree(out.get("manifest.json"))) {
+      byName.put(n.get("name").asText(), n);
+    }
+    return byName;
+  }
+
+  private static byte[] zip(String[]... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zout = new ZipOutputStream(bytes)) {
+      for (String[] e : entries) {
+        zout.putNextEntry(new ZipEntry(e[0]));
+        zout.write(e[1].getBytes(StandardCharsets.UTF_8));
+        zout.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String[] entry(String name, String content) {
+    return new String[] {name, content};
+  }
+
+  private static String json(String number) {
+    return "{\"invoice\":{\"number\":\"" + number + "\"}}";
+  }
+
+  private static String pdf() {
+    return "%PDF-1.7";
+  }
+
+  private static String text(Map<String, byte[]> out, String name) {
+    return new String(out.get(name), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,82 @@
+package com.example.facturx.service;
+
+import com.example.facturx.service.CountryMappingService.Tier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountryMappingReloadTest {
+
+    @TempDir
+    Path dir;
+
+    private long modified = System.currentTimeMillis() - 60_000;
+
+    @Test
+    void changedFileIsSwappedIn() throws IOException {
+        Path csv = write("# test\nAlpenland;AT\n\nKäseland;CH\n");
+        CountryMappingService service = service(csv);
+        assertEquals("AT", service.getCountryCode("Alpenland"));
+        assertEquals(Tier.FUZZY, service.resolve("Alpenlant").tier());
+        assertEquals("CH", service.getCountryCode("kaeseland"));
+
+        write("Alpenland;LI\nTulpenland;NL\n");
+        service.reloadIfChanged();
+
+        assertEquals("LI", service.getCountryCode("Alpenland"));
+        assertEquals("NL", service.getCountryCode("Tulpenland"));
+        assertEquals("LI", service.getCountryCode("Alpenlant"), "fuzzy results of the old table are dropped");
+        assertEquals(Tier.DEFAULT, service.resolve("Käseland").tier());
+    }
+
+    @Test
+    void invalidFileIsRejectedAndPreviousTableKept() throws IOException {
+        Path csv = write("Alpenland;AT\n");
+        CountryMappingService service = service(csv);
+
+        write("Alpenland;CH\nNirgendwo;XX\nohne Code\n");
+        service.reloadIfChanged();
+        assertEquals("AT", service.getCountryCode("Alpenland"));
+
+        write("Tunesien;TN\nTUNESIEN;TR\n");
+        service.reloadIfChanged();
+        assertEquals("AT", service.getCountryCode("Alpenland"));
+        assertEquals(Tier.DEFAULT, service.resolve("Tunesien").tier());
+
+        write("Alpenland;CH\n");
+        service.reloadIfChanged();
+        assertEquals("CH", service.getCountryCode("Alpenland"));
+    }
+
+    @Test
+    void invalidFileFailsStartup() throws IOException {
+        Path csv = write("Alpenland;AT\nAtlantis;ZZ\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> service(csv));
+        assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+    }
+
+    private Path write(String content) throws IOException {
+        Path csv = dir.resolve("countries.csv");
+        Files.writeString(csv, content, StandardCharsets.UTF_8);
+        // One second per change, so file systems with a coarse mtime still see it
+        modified += 1000;
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(modified));
+        return csv;
+    }
+
+    private static CountryMappingService service(Path csv) throws IOException {
+        return new CountryMappingService(new SimpleMeterRegistry(), new DefaultResourceLoader(),
+            csv.toUri().toString(), 100);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.facturx.service;
+
+import com.example.facturx.service.CountryMappingService.Resolution;
+import com.example.facturx.service.CountryMappingService.Tier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountryMappingServiceTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CountryMappingService service = service();
+
+    @Test
+    void exactAndIsoInputsResolveWithFullConfidence() {
+        assertEquals(new Resolution("AT", 1, Tier.EXACT), service.resolve("Österreich"));
+        assertEquals(new Resolution("NL", 1, Tier.EXACT), service.resolve("Niederlande"));
+        assertEquals(new Resolution("CH", 1, Tier.ISO), service.resolve(" che "));
+    }
+
+    @Test
+    void typosResolveFuzzily() {
+        Resolution austria = service.resolve("Östereich");
+        assertEquals("AT", austria.code());
+        assertEquals(Tier.FUZZY, austria.tier());
+        assertTrue(austria.confidence() > 0.8 && austria.confidence() < 1, () -> "confidence " + austria.confidence());
+
+        assertEquals("NL", service.getCountryCode("Netherland"));
+        assertEquals("CH", service.getCountryCode("Schwiez"));
+    }
+
+    @Test
+    void shortOrDistantNamesFallBackToDefault() {
+        // Four letters get no tolerance, otherwise "Irah" would be either "Irak" or "Iran"
+        assertEquals(new Resolution("DE", 0, Tier.DEFAULT), service.resolve("Irah"));
+        assertEquals(Tier.DEFAULT, service.resolve("Atlantis Republik").tier());
+        assertEquals(Tier.DEFAULT, service.resolve("   ").tier());
+        assertEquals(Tier.DEFAULT, service.resolve(null).tier());
+    }
+
+    @Test
+    void fuzzyResultIsComputedOncePerSpelling() {
+        service.resolve("Netherland");
+        service.resolve("Netherland");
+        service.resolve("Atlantis Republik");
+        service.resolve("Atlantis Republik");
+
+        assertEquals(2, count("facturx.country.cache", "result", "miss"));
+        assertEquals(2, count("facturx.country.cache", "result", "hit"));
+        assertEquals(2, count("facturx.country.resolved", "tier", "fuzzy"));
+        assertEquals(2, count("facturx.country.resolved", "tier", "default"));
+    }
+
+    private double count(String name, String tag, String value) {
+        return registry.counter(name, tag, value).count();
+    }
+
+    private CountryMappingService service() {
+        try {
+            return new CountryMappingService(registry, new DefaultResourceLoader(), "classpath:country-mapping.csv", 100);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.facturx.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountryTableTest {
+
+    private final CountryTable table = CountryTable.build(Map.of(
+        "Österreich", "AT",
+        "Deutschland", "DE",
+        "Großbritannien", "GB",
+        "Bosnien und Herzegowina", "BA",
+        "Côte d'Ivoire", "CI"));
+
+    @Test
+    void lookupNormalizesWhileWalking() {
+        assertEquals("AT", table.lookup("Österreich"));
+        assertEquals("AT", table.lookup("oesterreich"));
+        assertEquals("AT", table.lookup(" ÖSTERREICH! "));
+        assertEquals("GB", table.lookup("Grossbritannien"));
+        assertEquals("BA", table.lookup("Bosnien-und-Herzegowina"));
+        // Only German umlauts are expanded, other accented letters are skipped like punctuation
+        assertEquals("CI", table.lookup("CÔTE D’IVOIRE"));
+        assertNull(table.lookup("Cote d'Ivoire"));
+    }
+
+    @Test
+    void lookupMissesOnPrefixesAndUnknownNames() {
+        assertNull(table.lookup("Deutsch"));
+        assertNull(table.lookup("Deutschlandx"));
+        assertNull(table.lookup("Frankreich"));
+        assertNull(table.lookup(""));
+        assertNull(table.lookup("!!"));
+    }
+
+    @Test
+    void normalizeMatchesLookupRules() {
+        assertEquals("oesterreich", CountryTable.normalize("Öster-reich"));
+        assertEquals("grossbritannien", CountryTable.normalize("Großbritannien"));
+        assertEquals("ctedivoire", CountryTable.normalize("Côte d'Ivoire"));
+        assertEquals(5, table.size());
+    }
+
+    @Test
+    void buildRejectsConflictsAfterNormalization() {
+        Map<String, String> mapping = new LinkedHashMap<>();
+        mapping.put("Tunesien", "TN");
+        mapping.put("tunesien", "TN");
+        assertEquals(1, CountryTable.build(mapping).size());
+
+        mapping.put("TUNESIEN!", "TR");
+        assertThrows(IllegalArgumentException.class, () -> CountryTable.build(mapping));
+        assertThrows(IllegalArgumentException.class, () -> CountryTable.build(Map.of("--", "DE")));
+    }
+
+    @Test
+    void isoFastPathAcceptsAlpha2AndAlpha3InEitherCase() {
+        assertEquals("AT", IsoCountries.toAlpha2("AT", 0, 2));
+        assertEquals("AT", IsoCountries.toAlpha2("aut", 0, 3));
+        assertEquals("DE", IsoCountries.toAlpha2(" DEU ", 1, 4));
+        assertNull(IsoCountries.toAlpha2("XQ", 0, 2));
+        assertNull(IsoCountries.toAlpha2("A1", 0, 2));
+        assertNull(IsoCountries.toAlpha2("Peru", 0, 4));
+
+        assertTrue(IsoCountries.isAlpha2("CH"));
+        assertFalse(IsoCountries.isAlpha2("ch"));
+        assertFalse(IsoCountries.isAlpha2("CHE"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.facturx.service;
+
+import com.example.facturx.service.FacturxService.ExporterPath;
+import com.example.facturx.service.PdfAConformanceProbe.Conformance;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExporterMemoTest {
+
+  private static final Conformance PDFA3 = new Conformance(3, "B", "Writer|Tool");
+
+  private final MutableClock clock = new MutableClock();
+  private final ExporterMemo memo = new ExporterMemo(100, Duration.ofHours(1), 3, clock);
+  private int probes;
+
+  @Test
+  void repeatSenderSkipsProbe() throws Exception {
+    ExporterMemo.Selection first = memo.select("DE123", () -> probe(null));
+    assertFalse(first.remembered());
+    assertEquals(ExporterPath.A3, first.path());
+    memo.loaded("DE123", first, ExporterPath.A3);
+
+    ExporterMemo.Selection second = memo.select("DE123", () -> probe(null));
+    assertTrue(second.remembered());
+    assertEquals(ExporterPath.A3, second.path());
+    assertEquals(1, probes);
+  }
+
+  @Test
+  void withoutSenderAlwaysProbes() throws Exception {
+    memo.loaded(null, memo.select(null, () -> probe(PDFA3)), ExporterPath.PDFA);
+    assertFalse(memo.select(null, () -> probe(PDFA3)).remembered());
+    assertEquals(2, probes);
+  }
+
+  @Test
+  void rejectedPdfAIsReprobedEveryNthUse() throws Exception {
+    ExporterMemo.Selection first = memo.select("DE123", () -> probe(PDFA3));
+    assertEquals(ExporterPath.PDFA, first.path());
+    // ZUGFeRDExporterFromPDFA lehnt das eine PDF ab
+    memo.loaded("DE123", first, ExporterPath.A3);
+
+    for (int i = 0; i < 3; i++) {
+      ExporterMemo.Selection s = memo.select("DE123", () -> probe(PDFA3));
+      assertTrue(s.remembered());
+      assertEquals(ExporterPath.A3, s.path());
+    }
+    ExporterMemo.Selection reverify = memo.select("DE123", () -> probe(PDFA3));
+    assertFalse(reverify.remembered());
+    assertEquals(ExporterPath.PDFA, reverify.path(), "a re-probe follows the XMP again");
+    assertEquals(2, probes);
+  }
+
+  @Test
+  void entriesExpireAfterTtl() throws Exception {
+    memo.loaded("DE123", memo.select("DE123", () -> probe(PDFA3)), ExporterPath.PDFA);
+    assertNotNull(memo.select("DE123", () -> probe(PDFA3)).pdfASince());
+
+    clock.advance(Duration.ofMinutes(61));
+    ExporterMemo.Selection expired = memo.select("DE123", () -> probe(PDFA3));
+    assertFalse(expired.remembered());
+    assertNull(expired.pdfASince(), "an expired FromPDFA pass no longer qualifies for the incremental export");
+  }
+
+  @Test
+  void incrementalExportKeepsDateOfFromPdfAPass() throws Exception {
+    memo.loaded("DE123", memo.select("DE123", () -> probe(PDFA3)), ExporterPath.PDFA);
+    Instant pass = clock.instant();
+    for (int i = 0; i < 3; i++) memo.select("DE123", () -> probe(PDFA3));
+
+    clock.advance(Duration.ofMinutes(30));
+    ExporterMemo.Selection reverify = memo.select("DE123", () -> probe(PDFA3));
+    assertFalse(reverify.remembered());
+    assertEquals(pass, reverify.pdfASince());
+    memo.extended("DE123", reverify);
+
+    clock.advance(Duration.ofMinutes(31));
+    assertNull(memo.select("DE123", () -> probe(PDFA3)).pdfASince());
+  }
+
+  private Conformance probe(Conformance result) {
+    probes++;
+    return result;
+  }
+
+  private static final class MutableClock extends Clock {
+    private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+    void advance(Duration d) {
+      now = now.plus(d);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
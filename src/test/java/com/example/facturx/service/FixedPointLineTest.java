@@ -0,0 +1,184 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO.Line;
+import com.example.facturx.service.FacturxService.LineCalc;
+import com.example.facturx.service.FacturxService.TotalsEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differenztest Festkomma- gegen BigDecimal-Engine: {@link FacturxService#computeLineFixed} muss
+ * für jede Position entweder exakt dasselbe {@link LineCalc} liefern wie
+ * {@link FacturxService#computeLine(Line)} oder {@code null} (Rückfall auf BigDecimal).
+ */
+class FixedPointLineTest {
+
+  private static final String[] RATES = {"0", "5", "5.5", "7", "10", "16", "19", "20", "21", "7,00", "19.00"};
+
+  @Test
+  void randomizedLinesMatchBigDecimal() {
+    Random random = new Random(20251016L);
+    int compared = 0;
+    for (int i = 0; i < 200_000; i++) {
+      Line l = randomLine(random);
+      LineCalc reference;
+      try {
+        reference = FacturxService.computeLine(l);
+      } catch (ArithmeticException e) {
+        // Menge 0: auch BigDecimal kann keinen Einzelpreis ableiten, Festkomma gibt auf
+        assertNull(FacturxService.computeLineFixed(l), () -> describe(l));
+        continue;
+      }
+      LineCalc fixed = FacturxService.computeLineFixed(l);
+      if (fixed != null) {
+        assertEquals(reference, fixed, () -> describe(l));
+        compared++;
+      }
+    }
+    // Der Festkomma-Pfad muss den Großteil tatsächlich rechnen, nicht nur zurückfallen
+    assertTrue(compared > 150_000, "fixed-point engine handled only " + compared + " lines");
+  }
+
+  @ParameterizedTest
+  @CsvSource(delimiter = '|', nullValues = "null", value = {
+      // quantity | net_price | gross_price | tax_rate | discount
+      "1        | 83        | null        | 19       | null",
+      "3        | 0.3333    | null        | 19       | null",
+      "2,5      | 12,49     | null        | 7        | null",
+      "1        | null      | 83          | 19       | null",
+      "7        | null      | 0.99        | 19       | null",
+      "3        | null      | 10.7        | 7        | 1.00",
+      "1        | null      | 100         | 5.5      | null",
+      // Menge mit mehr als 4 Nachkommastellen wird wie bd4 gerundet
+      "1.23456  | 10        | null        | 19       | null",
+      "0.00005  | 10        | null        | 19       | null",
+      // Negative Mengen und Gutschriften
+      "-1       | 50        | null        | 19       | null",
+      "-2.5     | 19.99     | null        | 7        | null",
+      "1        | -25       | null        | 19       | null",
+      "-1       | -25       | null        | 19       | null",
+      "2        | null      | -11.90      | 19       | null",
+      // Rabatt: regulär, größer als die Position (auf 0 begrenzt), negativ (ignoriert), 0
+      "2        | 10        | null        | 19       | 5",
+      "2        | 10        | null        | 19       | 25",
+      "1        | 0.01      | null        | 19       | 0.02",
+      "2        | 10        | null        | 19       | -5",
+      "2        | 10        | null        | 19       | 0",
+      "1        | -10       | null        | 19       | 5",
+      // Preis 0 (Bundle-Positionen)
+      "2        | null      | 0           | 19       | null",
+      "1        | 0         | null        | 0        | null",
+  })
+  void edgeCasesMatchBigDecimal(String qty, String net, String gross, String rate, String discount) {
+    Line l = line(qty, net, gross, rate, discount);
+    LineCalc fixed = FacturxService.computeLineFixed(l);
+    assertNotNull(fixed, () -> "expected fixed-point result for " + describe(l));
+    assertEquals(FacturxService.computeLine(l), fixed, () -> describe(l));
+  }
+
+  @ParameterizedTest
+  @CsvSource(delimiter = '|', nullValues = "null", value = {
+      // Preise mit mehr als 4 Nachkommastellen sind nicht exakt darstellbar
+      "1                    | 1.23456      | null      | 19     | null",
+      "1                    | null         | 1.23456   | 19     | null",
+      // Steuersatz mit mehr als 2 Nachkommastellen beim Brutto-Pfad
+      "1                    | null         | 10        | 19.125 | null",
+      // Präzision >= 19 Stellen bzw. Überlauf von Menge × Preis
+      "99999999999999999999 | 1            | null      | 19     | null",
+      "1                    | 999999999999999999 | null | 19   | null",
+      "99999999999          | 99999999999  | null      | 19     | null",
+      "1000000000           | 1000000000   | null      | 19     | 5",
+      // Exponent-Schreibweise
+      "1                    | 1E2          | null      | 19     | null",
+  })
+  void unrepresentableInputFallsBackToBigDecimal(String qty, String net, String gross, String rate, String discount) {
+    Line l = line(qty, net, gross, rate, discount);
+    assertNull(FacturxService.computeLineFixed(l), () -> describe(l));
+    LineCalc reference = FacturxService.computeLine(l);
+    assertEquals(reference, FacturxService.computeLine(l, TotalsEngine.FIXED, null), () -> describe(l));
+  }
+
+  @Test
+  void zeroQuantityFailsLikeBigDecimal() {
+    Line l = line("0", "10", null, "19", null);
+    assertNull(FacturxService.computeLineFixed(l));
+    assertThrows(ArithmeticException.class, () -> FacturxService.computeLine(l));
+    assertThrows(ArithmeticException.class, () -> FacturxService.computeLine(l, TotalsEngine.FIXED, null));
+  }
+
+  @Test
+  void zeroQuantityWithNegativePriceIsCredit() {
+    Line l = line("0", "-10", null, "19", null);
+    LineCalc fixed = FacturxService.computeLineFixed(l);
+    assertNotNull(fixed);
+    assertEquals(FacturxService.computeLine(l), fixed);
+  }
+
+  @Test
+  void invalidLinesFailLikeBigDecimal() {
+    Line missingPrice = line("1", null, null, "19", null);
+    assertNull(FacturxService.computeLineFixed(missingPrice));
+    assertThrows(IllegalArgumentException.class,
+        () -> FacturxService.computeLine(missingPrice, TotalsEngine.FIXED, null));
+
+    Line missingQuantity = line(null, "10", null, "19", null);
+    assertNull(FacturxService.computeLineFixed(missingQuantity));
+    assertThrows(IllegalArgumentException.class,
+        () -> FacturxService.computeLine(missingQuantity, TotalsEngine.FIXED, null));
+  }
+
+  private static Line randomLine(Random random) {
+    String qty = decimal(random, random.nextInt(1000), random.nextInt(6), random.nextInt(10) == 0);
+    String rate = RATES[random.nextInt(RATES.length)];
+    String price = decimal(random, random.nextInt(100_000), random.nextInt(5), random.nextInt(8) == 0);
+    boolean gross = random.nextBoolean();
+    String discount = null;
+    switch (random.nextInt(6)) {
+      case 0 -> discount = decimal(random, random.nextInt(50), 2, false);
+      case 1 -> discount = decimal(random, random.nextInt(100_000), 2, false); // oft größer als die Position
+      case 2 -> discount = decimal(random, random.nextInt(10), 3, random.nextBoolean());
+      default -> { }
+    }
+    return line(qty, gross ? null : price, gross ? price : null, rate, discount);
+  }
+
+  /** Zufällige Dezimalzahl mit {@code scale} Nachkommastellen, wahlweise mit Komma als Trenner. */
+  private static String decimal(Random random, int integer, int scale, boolean negative) {
+    StringBuilder sb = new StringBuilder();
+    if (negative) sb.append('-');
+    sb.append(integer);
+    if (scale > 0) {
+      sb.append(random.nextBoolean() ? '.' : ',');
+      for (int i = 0; i < scale; i++) {
+        sb.append((char) ('0' + random.nextInt(10)));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static Line line(String qty, String net, String gross, String rate, String discount) {
+    Line l = new Line();
+    l.description = "Position";
+    l.quantity = qty;
+    l.netPrice = net;
+    l.grossPrice = gross;
+    l.taxRate = rate;
+    l.discount = discount;
+    l.unitCode = "C62";
+    return l;
+  }
+
+  private static String describe(Line l) {
+    return "qty=" + l.quantity + " net=" + l.netPrice + " gross=" + l.grossPrice
+        + " rate=" + l.taxRate + " discount=" + l.discount;
+  }
+}
@@ -0,0 +1,55 @@
+package com.example.facturx.service;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Inkrementeller Export: die Originalbytes bleiben unverändert vorne stehen, angehängt werden
+ * factur-x.xml, /AF-Eintrag und Factur-X-XMP.
+ */
+class IncrementalPdfAExportTest {
+
+  private static final byte[] XML = "<rsm:CrossIndustryInvoice>R-2025-001</rsm:CrossIndustryInvoice>"
+      .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  void appendsAttachmentAfAndXmpExtensionToOriginalBytes() throws IOException {
+    byte[] source = TemplateCacheTest.pdfA3();
+
+    byte[] out = TemplateCacheTest.export(source, XML);
+
+    assertTrue(out.length > source.length);
+    assertTrue(Arrays.equals(source, 0, source.length, out, 0, source.length), "original bytes must stay untouched");
+    TemplateCacheTest.assertFacturx(out, XML);
+  }
+
+  @Test
+  void declinesPdfThatAlreadyCarriesFacturx() throws IOException {
+    byte[] facturx = TemplateCacheTest.export(TemplateCacheTest.pdfA3(), XML);
+    try (PDDocument doc = Loader.loadPDF(facturx)) {
+      assertNull(IncrementalPdfAExport.of(doc, XML));
+    }
+  }
+
+  @Test
+  void declinesPdfWithoutXmp() throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      doc.save(bytes);
+      try (PDDocument plain = Loader.loadPDF(bytes.toByteArray())) {
+        assertNull(IncrementalPdfAExport.of(plain, XML));
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.example.facturx.service;
+
+import com.example.facturx.api.JobController;
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockPart;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JobServiceTest {
+
+  private static final byte[] PDF = "%PDF-result".getBytes(StandardCharsets.US_ASCII);
+
+  @TempDir
+  Path dir;
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private JobService jobs;
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    if (jobs != null) jobs.shutdown();
+  }
+
+  @Test
+  void fullQueueIsRejectedWith429() throws Exception {
+    jobs = jobService(Duration.ofMinutes(30), true);
+    InvoiceDTO dto = invoice();
+    jobs.submit(dto, pdf());
+    jobs.submit(dto, pdf());
+
+    AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class, () -> jobs.submit(dto, pdf()));
+    assertEquals(AdmissionRejectedException.Reason.QUEUE_FULL, e.getReason());
+
+    JobController controller = new JobController();
+    ReflectionTestUtils.setField(controller, "jobService", jobs);
+    ReflectionTestUtils.setField(controller, "invoiceReader",
+        new InvoiceReader(new ObjectMapper(), new BuildMetrics(new SimpleMeterRegistry())));
+    MockPart invoice = new MockPart("invoice", "{\"invoice\":{\"number\":\"R-1\"}}".getBytes(StandardCharsets.UTF_8));
+    ResponseEntity<JobService.JobStatus> response = controller.submit(invoice, pdf());
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+    assertEquals("7", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+  }
+
+  @Test
+  void jobAndResultExpireAfterTtl() throws Exception {
+    jobs = jobService(Duration.ofMillis(100), false);
+    String id = jobs.submit(invoice(), pdf()).jobId();
+    awaitDone(id);
+    try (InputStream in = jobs.openResult(id)) {
+      assertNotNull(in);
+      assertArrayEquals(PDF, in.readAllBytes());
+    }
+
+    Thread.sleep(150);
+    jobs.evictExpired();
+    assertNull(jobs.status(id));
+    assertNull(jobs.openResult(id));
+  }
+
+  private JobService jobService(Duration ttl, boolean blockExports) throws IOException {
+    JobService service = new JobService(new SimpleMeterRegistry(), 1, 1, dir, DataSize.ofMegabytes(1), ttl,
+        Duration.ofSeconds(7));
+    FacturxService facturx = mock(FacturxService.class);
+    when(facturx.ingestToDisk(any())).thenAnswer(call -> PdfSource.fromBytes(PDF));
+    when(facturx.prepare(any(InvoiceDTO.class), any(PdfSource.class))).thenAnswer(call -> {
+      if (blockExports) release.await(5, TimeUnit.SECONDS);
+      return export();
+    });
+    ReflectionTestUtils.setField(service, "facturxService", facturx);
+    ReflectionTestUtils.setField(service, "admission",
+        new ExportAdmission(new SimpleMeterRegistry(), 2, DataSize.ofMegabytes(1), 10, Duration.ofSeconds(5), Duration.ofSeconds(1)));
+    return service;
+  }
+
+  private void awaitDone(String id) throws InterruptedException {
+    for (int i = 0; i < 500 && jobs.status(id).status() != JobService.State.DONE; i++) {
+      assertTrue(jobs.status(id).status() != JobService.State.FAILED, jobs.status(id).error());
+      Thread.sleep(10);
+    }
+    assertEquals(JobService.State.DONE, jobs.status(id).status());
+  }
+
+  private static FacturxExport export() {
+    FacturxExport.Writer writer = new FacturxExport.Writer() {
+      @Override
+      public void export(OutputStream out) throws IOException {
+        out.write(PDF);
+      }
+
+      @Override
+      public void close() {}
+    };
+    return new FacturxExport(writer, null, new BuildMetrics(new SimpleMeterRegistry()),
+        new ExportExecutor(new MockEnvironment(), 0));
+  }
+
+  private static MockMultipartFile pdf() {
+    return new MockMultipartFile("pdf", PDF);
+  }
+
+  private static InvoiceDTO invoice() {
+    InvoiceDTO dto = new InvoiceDTO();
+    dto.header = new InvoiceDTO.HeaderDTO();
+    dto.header.number = "R-1";
+    return dto;
+  }
+}
@@ -0,0 +1,83 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfMemoryPolicyTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void spilledPdfAAboveHeapShareIsRejected() throws IOException {
+    PdfMemoryPolicy policy = policy(DataSize.ofKilobytes(0));
+    try (PdfSource small = spilled(1024); PdfSource large = spilled(8 * 1024)) {
+      assertDoesNotThrow(() -> policy.checkHeapLoad(small));
+      PdfBudgetExceededException e = assertThrows(PdfBudgetExceededException.class, () -> policy.checkHeapLoad(large));
+      assertEquals(4 * 1024, e.getBudget());
+    }
+    assertDoesNotThrow(() -> policy.checkHeapLoad(PdfSource.fromBytes(new byte[8 * 1024])));
+  }
+
+  @Test
+  void onlyLargeSpilledSourcesArePrerendered() throws IOException {
+    PdfMemoryPolicy policy = policy(DataSize.ofKilobytes(2));
+    AtomicInteger exports = new AtomicInteger();
+    try (PdfSource small = spilled(1024); PdfSource large = spilled(3 * 1024);
+         FacturxExport direct = export(exports); FacturxExport early = export(exports)) {
+      policy.prerender(direct, small);
+      assertEquals(0, exports.get(), "small sources stream straight into the response");
+
+      policy.prerender(early, large);
+      assertEquals(1, exports.get());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      early.writeTo(out);
+      assertEquals(1, exports.get(), "prerendered result is copied, not exported again");
+      assertArrayEquals(new byte[] {'%', 'P', 'D', 'F'}, out.toByteArray());
+    }
+    try (var files = Files.list(dir.resolve("scratch"))) {
+      assertTrue(files.findAny().isEmpty(), "prerendered file is deleted on close");
+    }
+  }
+
+  private PdfMemoryPolicy policy(DataSize prerenderAbove) throws IOException {
+    return new PdfMemoryPolicy(DataSize.ofKilobytes(4), DataSize.ofKilobytes(16), prerenderAbove,
+        dir.resolve("scratch").toString());
+  }
+
+  private static PdfSource spilled(int size) throws IOException {
+    return PdfSource.fromMultipart(new MockMultipartFile("pdf", new byte[size]), -1);
+  }
+
+  private static FacturxExport export(AtomicInteger exports) {
+    FacturxExport.Writer writer = new FacturxExport.Writer() {
+      @Override
+      public void export(OutputStream out) throws IOException {
+        exports.incrementAndGet();
+        out.write(new byte[] {'%', 'P', 'D', 'F'});
+      }
+
+      @Override
+      public void close() {}
+    };
+    return new FacturxExport(writer, null, new BuildMetrics(new SimpleMeterRegistry()),
+        new ExportExecutor(new MockEnvironment(), 0));
+  }
+}
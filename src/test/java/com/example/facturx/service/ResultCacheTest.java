@@ -0,0 +1,121 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCacheTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void concurrentRequestsCollapseOntoOneComputation() throws Exception {
+    ResultCache cache = cache(Duration.ofSeconds(10));
+    ResultCache.Claim leader = cache.claim("k");
+    ResultCache.Claim follower = cache.claim("k");
+    assertTrue(leader.leader());
+    assertFalse(follower.leader());
+
+    CompletableFuture<byte[]> waiting = CompletableFuture.supplyAsync(() -> {
+      try {
+        follower.await();
+        try (InputStream in = cache.open("k")) {
+          return in != null ? in.readAllBytes() : null;
+        }
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    byte[] pdf = "%PDF-result".getBytes(StandardCharsets.US_ASCII);
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try (ResultCache.Recording recording = cache.record("k", response)) {
+      recording.write(pdf);
+      recording.commit();
+    }
+    assertFalse(waiting.isDone(), "waiters are woken by the claim, not by the recording");
+    leader.close();
+
+    assertArrayEquals(pdf, waiting.get(5, TimeUnit.SECONDS));
+    assertArrayEquals(pdf, response.toByteArray());
+  }
+
+  @Test
+  void lateReleaseDoesNotWakeWaitersOfNewerComputation() {
+    ResultCache cache = cache(Duration.ofMillis(50));
+    ResultCache.Claim first = cache.claim("k");
+    first.close();
+    ResultCache.Claim second = cache.claim("k");
+    assertTrue(second.leader());
+
+    first.close();
+    assertFalse(cache.claim("k").leader(), "second computation must still be in flight");
+
+    second.close();
+    assertTrue(cache.claim("k").leader());
+  }
+
+  @Test
+  void uncommittedRecordingIsNotServed() throws IOException {
+    ResultCache cache = cache(Duration.ofSeconds(1));
+    try (ResultCache.Claim claim = cache.claim("k");
+         ResultCache.Recording recording = cache.record("k", OutputStream.nullOutputStream())) {
+      assertTrue(claim.leader());
+      recording.write(new byte[] {1, 2, 3});
+    }
+    assertNull(cache.open("k"));
+  }
+
+  @Test
+  void idempotencyKeyIsBoundToContent() throws IOException {
+    ResultCache cache = cache(Duration.ofSeconds(1));
+    PdfSource pdf = PdfSource.fromBytes("%PDF".getBytes(StandardCharsets.US_ASCII));
+    String a = cache.key(invoice("R-1"), pdf);
+    String b = cache.key(invoice("R-2"), pdf);
+    assertNotEquals(a, b);
+    assertEquals(a, cache.key(invoice("R-1"), pdf));
+
+    assertTrue(cache.bindIdempotencyKey("idem-1", a));
+    assertTrue(cache.bindIdempotencyKey("idem-1", a), "retry with the same content");
+    assertFalse(cache.bindIdempotencyKey("idem-1", b), "same key, different request");
+    assertTrue(cache.bindIdempotencyKey("idem-2", b));
+  }
+
+  private ResultCache cache(Duration inFlightWait) {
+    try {
+      return new ResultCache(new ObjectMapper(), new SimpleMeterRegistry(), true,
+          DataSize.ofMegabytes(1), DataSize.ofKilobytes(64), dir, DataSize.ofMegabytes(10),
+          Duration.ofMinutes(10), inFlightWait, 100);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static InvoiceDTO invoice(String number) {
+    InvoiceDTO dto = new InvoiceDTO();
+    dto.header = new InvoiceDTO.HeaderDTO();
+    dto.header.number = number;
+    return dto;
+  }
+}
@@ -0,0 +1,87 @@
+package com.example.facturx.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResultStoreTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void evictionWaitsForOpenReader() throws IOException {
+    ResultStore store = new ResultStore(dir, 10, Duration.ofMinutes(10));
+    put(store, "a", new byte[] {1, 2, 3, 4, 5, 6});
+
+    try (ResultStore.StoredResult in = store.open("a")) {
+      assertNotNull(in);
+      assertEquals(6, in.size());
+      put(store, "b", new byte[] {7, 8, 9, 10, 11, 12});
+
+      assertNull(store.open("a"), "evicted entry is gone from the index");
+      assertEquals(6, store.totalBytes());
+      assertEquals(2, files(), "but its file stays while it is being read");
+      assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, in.readAllBytes());
+    }
+    assertEquals(1, files());
+  }
+
+  @Test
+  void expiryWaitsForOpenReader() throws Exception {
+    ResultStore store = new ResultStore(dir, 1024, Duration.ofMillis(20));
+    put(store, "a", new byte[] {1, 2, 3});
+
+    InputStream in = store.open("a");
+    Thread.sleep(50);
+    store.evictExpired();
+    assertNull(store.open("a"));
+    assertEquals(0, store.totalBytes());
+    assertEquals(1, files());
+
+    assertArrayEquals(new byte[] {1, 2, 3}, in.readAllBytes());
+    in.close();
+    in.close();
+    assertEquals(0, files());
+  }
+
+  @Test
+  void recommitKeepsFileOfOpenReader() throws IOException {
+    ResultStore store = new ResultStore(dir, 1024, Duration.ofMinutes(10));
+    put(store, "k", new byte[] {1});
+    try (InputStream old = store.open("k")) {
+      put(store, "k", new byte[] {2, 2});
+      assertEquals(2, store.totalBytes());
+      assertArrayEquals(new byte[] {1}, old.readAllBytes());
+    }
+    try (InputStream current = store.open("k")) {
+      assertArrayEquals(new byte[] {2, 2}, current.readAllBytes());
+    }
+    assertEquals(1, files());
+  }
+
+  private static void put(ResultStore store, String key, byte[] content) throws IOException {
+    try (OutputStream out = store.create(key)) {
+      out.write(content);
+    }
+    store.commit(key);
+  }
+
+  private long files() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+}
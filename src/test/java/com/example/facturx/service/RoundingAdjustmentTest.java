@@ -0,0 +1,211 @@
+package com.example.facturx.service;
+
+import com.example.facturx.model.InvoiceDTO.Line;
+import com.example.facturx.model.InvoiceDTO.TotalsDTO;
+import com.example.facturx.service.FacturxService.LineCalc;
+import com.example.facturx.service.FacturxService.RoundingAdjustment;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rundungsausgleich: jeder Posten liegt in Satz und Kategorie seiner MwSt-Gruppe, und mit den
+ * Posten ergibt die Rechnung (MwSt je Gruppe auf die Netto-Summe) genau den erwarteten Betrag.
+ */
+class RoundingAdjustmentTest {
+
+  @Test
+  void mixedRatesAdjustEachCategoryInItsOwnRate() {
+    // Je Position 0,13 € → 0,15 € bzw. 0,07 € → 0,07 €; summarisch 0,46 € bzw. 0,22 €
+    List<LineCalc> calcs = calcs(
+        line("0.13", "19", "S"), line("0.13", "19", "S"), line("0.13", "19", "S"),
+        line("0.07", "7", "S"), line("0.07", "7", "S"), line("0.07", "7", "S"));
+    TotalsDTO totals = totals("0.66", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(
+        new RoundingAdjustment(new BigDecimal("19.00"), "S", -1),
+        new RoundingAdjustment(new BigDecimal("7.00"), "S", -1)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void noAdjustmentWhenTotalsAgree() {
+    List<LineCalc> calcs = calcs(line("100.00", "19", "S"), line("10.00", "7", "S"));
+    assertEquals(List.of(), FacturxService.roundingAdjustments(totals("129.70", null), calcs));
+  }
+
+  @Test
+  void negativeDeltaFromSourceGoesToLargestCategory() {
+    List<LineCalc> calcs = calcs(line("100.00", "19", "S"), line("10.00", "7", "S"));
+    TotalsDTO totals = totals("129.65", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    // 5 Cent Brutto weniger bei 19 %: 4 Cent Netto, MwSt 18,9924 → 18,99
+    assertEquals(List.of(new RoundingAdjustment(new BigDecimal("19.00"), "S", -4)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void unexplainedDeltaIsNotSplitIntoOpposingItems() {
+    // Positionsweise je Kategorie −1 Cent, das erwartete Total weicht aber nur um −1 Cent ab
+    List<LineCalc> calcs = calcs(
+        line("0.13", "19", "S"), line("0.13", "19", "S"), line("0.13", "19", "S"),
+        line("0.07", "7", "S"), line("0.07", "7", "S"), line("0.07", "7", "S"));
+    TotalsDTO totals = totals("0.67", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(new RoundingAdjustment(new BigDecimal("19.00"), "S", -1)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void unreachableGrossRestBecomesExemptItemWithSameSign() {
+    // Netto 10,01 → 11,91; 10,02 → 11,92; 10,03 → 11,94: 11,93 ist bei 19 % nicht erreichbar
+    List<LineCalc> calcs = calcs(line("10.00", "19", "S"));
+    TotalsDTO totals = totals("11.93", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(
+        new RoundingAdjustment(new BigDecimal("19.00"), "S", 2),
+        new RoundingAdjustment(new BigDecimal("0.00"), "E", 1)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void unreachableRestGoesToZeroRateCategoryOfInvoice() {
+    List<LineCalc> calcs = calcs(line("10.00", "19", "S"), line("5.00", "0", "Z"));
+    TotalsDTO totals = totals("16.93", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(
+        new RoundingAdjustment(new BigDecimal("19.00"), "S", 2),
+        new RoundingAdjustment(new BigDecimal("0.00"), "Z", 1)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void invoiceDiscountIsPartOfExpectedTotal() {
+    List<LineCalc> calcs = calcs(line("100.00", "19", "S"));
+    assertEquals(List.of(), FacturxService.roundingAdjustments(totals("109.00", "10.00"), calcs));
+
+    TotalsDTO totals = totals("108.99", "10.00");
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(new RoundingAdjustment(new BigDecimal("19.00"), "S", -1)), adjustments);
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void linesWithoutCategoryKeepTheirOwnGroup() {
+    List<LineCalc> calcs = calcs(line("100.00", "19", null), line("100.00", "19", "S"));
+    TotalsDTO totals = totals("237.99", null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(1, adjustments.size());
+    assertEquals(null, adjustments.get(0).category());
+    assertReaches(totals, calcs, adjustments);
+  }
+
+  @Test
+  void amountsBeyondLongRangeFallBackToBigDecimal() {
+    // 20 Stellen: passt nicht mehr in Cent-longs
+    List<LineCalc> calcs = calcs(line("123456789012345678.90", "19", "S"), line("10.00", "7", "S"));
+    assertEquals(FixedPoint.INVALID, calcs.get(0).netCents());
+    BigDecimal gross = new BigDecimal("146913578924691357.89").add(new BigDecimal("10.70"));
+    TotalsDTO totals = totals(gross.subtract(new BigDecimal("0.05")).toPlainString(), null);
+
+    List<RoundingAdjustment> adjustments = FacturxService.roundingAdjustments(totals, calcs);
+
+    assertEquals(List.of(new RoundingAdjustment(new BigDecimal("19.00"), "S", -4)), adjustments);
+    BigDecimal net = new BigDecimal("123456789012345678.86");
+    BigDecimal reached = net.add(net.multiply(new BigDecimal("0.19")).setScale(2, RoundingMode.HALF_UP))
+        .add(new BigDecimal("10.70"));
+    assertEquals(new BigDecimal(totals.grandTotalGross), reached);
+  }
+
+  @Test
+  void bigDecimalPathMatchesFixedPath() {
+    Random random = new Random(42);
+    String[] rates = {"19", "7", "0", "16.5"};
+    String[] categories = {"S", "S", "Z", null};
+    for (int run = 0; run < 2000; run++) {
+      List<LineCalc> calcs = new ArrayList<>();
+      BigDecimal lineGross = BigDecimal.ZERO;
+      for (int i = 1 + random.nextInt(6); i > 0; i--) {
+        int r = random.nextInt(rates.length);
+        LineCalc c = FacturxService.computeLine(
+            line(BigDecimal.valueOf(random.nextInt(100_000) - 5_000, 2).toPlainString(), rates[r], categories[r]));
+        calcs.add(c);
+        lineGross = lineGross.add(c.lineGross());
+      }
+      BigDecimal discount = random.nextBoolean() ? BigDecimal.valueOf(random.nextInt(500), 2) : null;
+      BigDecimal expected = lineGross.add(BigDecimal.valueOf(random.nextInt(11) - 5, 2))
+          .subtract(discount != null ? discount : BigDecimal.ZERO);
+      TotalsDTO totals = totals(expected.toPlainString(), discount != null ? discount.toPlainString() : null);
+
+      List<RoundingAdjustment> fixed = FacturxService.roundingAdjustments(totals, calcs);
+      assertEquals(fixed, FacturxService.roundingAdjustmentsExact(expected.setScale(2),
+          discount != null ? discount.setScale(2) : BigDecimal.ZERO.setScale(2), calcs), totals.grandTotalGross);
+      assertReaches(totals, calcs, fixed);
+    }
+  }
+
+  /** Rechnet die Rechnung samt Ausgleich wie Mustang nach und vergleicht mit dem Soll. */
+  private static void assertReaches(TotalsDTO totals, List<LineCalc> calcs, List<RoundingAdjustment> adjustments) {
+    VatBreakdown breakdown = new VatBreakdown();
+    for (LineCalc c : calcs) {
+      breakdown.add(c.vatPct().movePointRight(2).longValueExact(), c.src().taxCategory, c.netCents(), c.grossCents());
+    }
+    for (RoundingAdjustment a : adjustments) {
+      breakdown.add(a.vatPercent().movePointRight(2).longValueExact(), a.category(), a.net().movePointRight(2).longValueExact(), 0);
+      assertTrue(a.net().signum() != 0, a::toString);
+    }
+    long gross = 0;
+    for (int slot : breakdown.slots()) {
+      gross += breakdown.gross(slot);
+    }
+    if (totals.discountGross != null) {
+      gross -= new BigDecimal(totals.discountGross).movePointRight(2).longValueExact();
+    }
+    assertEquals(new BigDecimal(totals.grandTotalGross), BigDecimal.valueOf(gross, 2));
+  }
+
+  private static List<LineCalc> calcs(Line... lines) {
+    List<LineCalc> calcs = new ArrayList<>();
+    for (Line l : lines) {
+      calcs.add(FacturxService.computeLine(l));
+    }
+    return calcs;
+  }
+
+  private static Line line(String net, String rate, String category) {
+    Line l = new Line();
+    l.description = "Position";
+    l.quantity = "1";
+    l.netPrice = net;
+    l.taxRate = rate;
+    l.taxCategory = category;
+    return l;
+  }
+
+  private static TotalsDTO totals(String grand, String discount) {
+    TotalsDTO t = new TotalsDTO();
+    t.grandTotalGross = grand;
+    t.discountGross = discount;
+    return t;
+  }
+}
@@ -0,0 +1,209 @@
+package com.example.facturx.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Vorlagen-Basis: aus einem Factur-X-PDF abgeleitet darf sie nichts von der ersten Rechnung
+ * enthalten, und ein Export auf ihr muss wieder genau eine {@code factur-x.xml} samt /AF und
+ * Factur-X-XMP tragen.
+ */
+class TemplateCacheTest {
+
+  static final String XMP = """
+      <?xpacket begin="" id="W5M0MpCehiHzreSzNTczkc9d"?>
+      <x:xmpmeta xmlns:x="adobe:ns:meta/">
+        <rdf:RDF xmlns:rdf="http://www.w3.org/1999/02/22-rdf-syntax-ns#">
+          <rdf:Description rdf:about="" xmlns:pdfaid="http://www.aiim.org/pdfa/ns/id/">
+            <pdfaid:part>3</pdfaid:part>
+            <pdfaid:conformance>B</pdfaid:conformance>
+          </rdf:Description>
+          <rdf:Description rdf:about="" xmlns:pdf="http://ns.adobe.com/pdf/1.3/" pdf:Producer="Template Writer"/>
+        </rdf:RDF>
+      </x:xmpmeta>
+      <?xpacket end="w"?>
+      """;
+
+  private static final byte[] FIRST = "<rsm:CrossIndustryInvoice>FIRST-INVOICE-4711</rsm:CrossIndustryInvoice>"
+      .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] SECOND = "<rsm:CrossIndustryInvoice>SECOND-INVOICE-0815</rsm:CrossIndustryInvoice>"
+      .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  void baseDropsInvoiceAndExportOnBaseAddsItAgain() throws IOException {
+    byte[] first = export(pdfA3(), FIRST);
+
+    byte[] base = TemplateCache.base(first);
+    assertNotNull(base);
+    assertFalse(contains(base, "FIRST-INVOICE-4711"));
+    try (PDDocument doc = Loader.loadPDF(base)) {
+      assertNull(doc.getDocumentCatalog().getCOSObject().getCOSArray(COSName.AF));
+      assertNull(doc.getDocumentCatalog().getNames());
+      String xmp = xmp(doc);
+      assertFalse(xmp.contains("factur-x"), xmp);
+      assertTrue(xmp.contains("pdfaid:part"), xmp);
+      assertTrue(xmp.contains("Template Writer"), xmp);
+    }
+
+    byte[] second = export(base, SECOND);
+    assertFalse(contains(second, "FIRST-INVOICE-4711"));
+    assertFacturx(second, SECOND);
+  }
+
+  @Test
+  void baseKeepsOtherAttachments() throws IOException {
+    byte[] source;
+    try (PDDocument doc = Loader.loadPDF(pdfA3())) {
+      PDComplexFileSpecification other = new PDComplexFileSpecification();
+      other.setFile("terms.txt");
+      PDDocumentNameDictionary names = new PDDocumentNameDictionary(doc.getDocumentCatalog());
+      PDEmbeddedFilesNameTreeNode files = new PDEmbeddedFilesNameTreeNode();
+      files.setNames(Map.of("terms.txt", other));
+      names.setEmbeddedFiles(files);
+      doc.getDocumentCatalog().setNames(names);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      doc.save(out);
+      source = out.toByteArray();
+    }
+
+    byte[] base = TemplateCache.base(export(source, FIRST));
+    try (PDDocument doc = Loader.loadPDF(base)) {
+      Map<String, PDComplexFileSpecification> files = doc.getDocumentCatalog().getNames().getEmbeddedFiles().getNames();
+      assertEquals(Set.of("terms.txt"), files.keySet());
+    }
+  }
+
+  @Test
+  void baseOfPdfWithoutFacturxIsNull() throws IOException {
+    assertNull(TemplateCache.base(pdfA3()));
+  }
+
+  @Test
+  void storesOnlyFromSecondSightingAndWithinBytes() throws IOException {
+    TemplateCache cache = new TemplateCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1), DataSize.ofKilobytes(512), 10);
+    FacturxExport.Writer mustang = writer(FIRST);
+
+    assertSame(mustang, cache.recording("k", mustang));
+    assertNull(cache.get("k"));
+
+    FacturxExport.Writer recording = cache.recording("k", mustang);
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    recording.export(response);
+    byte[] base = cache.get("k");
+    assertNotNull(base);
+    assertEquals(base.length, cache.bytes());
+    // Die Antwort selbst bleibt unverändert Mustangs Ausgabe
+    assertFacturx(response.toByteArray(), FIRST);
+  }
+
+  @Test
+  void acceptsOnlySmallInMemorySources() {
+    TemplateCache cache = new TemplateCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1), DataSize.ofBytes(10), 10);
+    assertTrue(cache.accepts(PdfSource.fromBytes(new byte[10])));
+    assertFalse(cache.accepts(PdfSource.fromBytes(new byte[11])));
+    TemplateCache off = new TemplateCache(new SimpleMeterRegistry(), DataSize.ofBytes(0), DataSize.ofBytes(10), 10);
+    assertFalse(off.accepts(PdfSource.fromBytes(new byte[1])));
+  }
+
+  /** Einseitiges PDF mit PDF/A-3-Kennung im XMP. */
+  static byte[] pdfA3() throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      doc.getDocumentCatalog().setMetadata(new PDMetadata(doc, new ByteArrayInputStream(XMP.getBytes(StandardCharsets.UTF_8))));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      doc.save(out);
+      return out.toByteArray();
+    }
+  }
+
+  static byte[] export(byte[] pdf, byte[] xml) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer(pdf, xml).export(out);
+    return out.toByteArray();
+  }
+
+  /** Steht für Mustang: liefert bei jedem Export ein Factur-X-PDF mit {@code xml}. */
+  private static FacturxExport.Writer writer(byte[] xml) {
+    return new FacturxExport.Writer() {
+      @Override
+      public void export(OutputStream out) throws IOException {
+        out.write(TemplateCacheTest.export(pdfA3(), xml));
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private static IncrementalPdfAExport writer(byte[] pdf, byte[] xml) throws IOException {
+    IncrementalPdfAExport export = IncrementalPdfAExport.of(Loader.loadPDF(pdf), xml);
+    assertNotNull(export);
+    return export;
+  }
+
+  /** Genau eine factur-x.xml mit {@code xml}, als /AF referenziert, und genau ein fx-Schema im XMP. */
+  static void assertFacturx(byte[] pdf, byte[] xml) throws IOException {
+    try (PDDocument doc = Loader.loadPDF(pdf)) {
+      Map<String, PDComplexFileSpecification> files = doc.getDocumentCatalog().getNames().getEmbeddedFiles().getNames();
+      PDComplexFileSpecification spec = files.get(IncrementalPdfAExport.FILE_NAME);
+      assertNotNull(spec);
+      assertEquals("Alternative", spec.getCOSObject().getNameAsString(COSName.AF_RELATIONSHIP));
+      try (InputStream in = spec.getEmbeddedFile().createInputStream()) {
+        assertArrayEquals(xml, in.readAllBytes());
+      }
+
+      COSArray af = doc.getDocumentCatalog().getCOSObject().getCOSArray(COSName.AF);
+      assertNotNull(af);
+      assertEquals(1, af.size());
+      assertEquals(spec.getCOSObject(), af.getObject(0));
+
+      String xmp = xmp(doc);
+      assertEquals(1, count(xmp, "<fx:DocumentFileName>factur-x.xml</fx:DocumentFileName>"), xmp);
+      assertEquals(1, count(xmp, "urn:factur-x:pdfa:CrossIndustryDocument:invoice:1p0#</pdfaSchema:namespaceURI>"), xmp);
+      assertTrue(xmp.contains("pdfaid:part"), xmp);
+    }
+  }
+
+  private static String xmp(PDDocument doc) throws IOException {
+    try (InputStream in = doc.getDocumentCatalog().getMetadata().exportXMPMetadata()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static int count(String s, String needle) {
+    int n = 0;
+    for (int i = s.indexOf(needle); i >= 0; i = s.indexOf(needle, i + 1)) n++;
+    return n;
+  }
+
+  private static boolean contains(byte[] pdf, String text) {
+    return new String(pdf, StandardCharsets.ISO_8859_1).contains(text);
+  }
+}
@@ -0,0 +1,84 @@
+package com.example.facturx.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VatBreakdownTest {
+
+  @Test
+  void sumsPerRateAndCategorySortedByKey() {
+    VatBreakdown b = new VatBreakdown();
+    b.add(1900, "S", 13, 15);
+    b.add(700, "S", 7, 7);
+    b.add(1900, "S", 13, 15);
+    b.add(1900, "AE", 100, 100);
+    b.add(0, null, 500, 500);
+
+    int[] slots = b.slots();
+    assertEquals(4, slots.length);
+    assertEquals(new BigDecimal("0.00"), b.rate(slots[0]));
+    assertNull(b.category(slots[0]));
+    assertEquals(new BigDecimal("7.00"), b.rate(slots[1]));
+    assertEquals("AE", b.category(slots[2]));
+    assertEquals("S", b.category(slots[3]));
+
+    int s19 = slots[3];
+    assertEquals(26, b.net(s19));
+    assertEquals(5, b.vat(s19));      // 26 × 19 % = 4,94 → 5
+    assertEquals(31, b.gross(s19));
+    assertEquals(30, b.lineGross(s19));
+  }
+
+  @Test
+  void blankCategoryIsItsOwnGroup() {
+    VatBreakdown b = new VatBreakdown();
+    b.add(1900, " ", 100, 119);
+    b.add(1900, null, 100, 119);
+    b.add(1900, "S", 100, 119);
+    assertEquals(2, b.size());
+  }
+
+  @Test
+  void growsBeyondInitialCapacity() {
+    VatBreakdown b = new VatBreakdown();
+    for (int rate = 0; rate < 50; rate++) {
+      b.add(rate * 100L, "S", rate, rate);
+      b.add(rate * 100L, "S", 1, 1);
+    }
+    int[] slots = b.slots();
+    assertEquals(50, slots.length);
+    long[] rates = new long[50];
+    for (int i = 0; i < 50; i++) {
+      rates[i] = b.vatRate(slots[i]);
+      assertEquals(i + 1, b.net(slots[i]));
+    }
+    long[] expected = new long[50];
+    for (int i = 0; i < 50; i++) expected[i] = i * 100L;
+    assertArrayEquals(expected, rates);
+  }
+
+  @Test
+  void netForGrossHitsReachableAndUndershootsUnreachableGross() {
+    VatBreakdown b = new VatBreakdown();
+    b.add(1900, "S", 1000, 1190);
+    int slot = b.slots()[0];
+    assertEquals(1, b.netForGross(slot, 1));
+    assertEquals(-4, b.netForGross(slot, -5));
+    // 1193 ist nicht erreichbar (1002 → 1192, 1003 → 1194): der kleinere Betrag gewinnt
+    assertEquals(2, b.netForGross(slot, 3));
+    assertEquals(2, b.grossChange(slot, 2));
+    assertEquals(4, b.grossChange(slot, 3));
+  }
+
+  @Test
+  void rejectsLongCategoryCodes() {
+    VatBreakdown b = new VatBreakdown();
+    assertThrows(IllegalArgumentException.class, () -> b.add(1900, "ABC", 1, 1));
+  }
+}